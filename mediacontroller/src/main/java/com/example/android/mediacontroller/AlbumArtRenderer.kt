@@ -0,0 +1,172 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.graphics.Rect
+import android.os.Build
+import android.widget.ImageView
+import androidx.annotation.DrawableRes
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+
+/**
+ * Shows the album art of the current metadata in [view].
+ *
+ * Media apps often send their metadata again with every playback state change, and each time
+ * the art is unparceled into a new bitmap. Art that matches what is already shown, going by its
+ * size, config and a sample of its rows, is skipped, and art larger than the view is scaled down
+ * on a background thread into a bitmap reused from the ones shown before it. HARDWARE art can't
+ * be read or drawn into a software canvas, so it is always shown as it is.
+ *
+ * All methods must be called on the main thread.
+ */
+class AlbumArtRenderer(private val view: ImageView, @DrawableRes private val placeholder: Int) {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+    private val pool = BitmapPool(POOL_BYTES)
+    private val paint = Paint(Paint.FILTER_BITMAP_FLAG)
+
+    private var pending: Job? = null
+    // Art most recently passed to setArt
+    private var source: Bitmap? = null
+    private var sourceGenerationId = 0
+    // Hash of the art shown in the view, or UNKNOWN_HASH if there is none or it can't be hashed
+    private var shownHash = 0L
+    // Bitmap shown in the view, if it was allocated here and can go back to the pool
+    private var shown: Bitmap? = null
+
+    fun setArt(art: Bitmap?) {
+        if (art == null) {
+            pending?.cancel()
+            source = null
+            show(null, hash = UNKNOWN_HASH)
+            return
+        }
+        if (art === source && art.generationId == sourceGenerationId) {
+            return
+        }
+
+        pending?.cancel()
+        source = art
+        sourceGenerationId = art.generationId
+        if (isHardware(art)) {
+            show(art, UNKNOWN_HASH)
+            return
+        }
+        val targetSize = targetSize()
+        pending = scope.launch {
+            val hash = withContext(Dispatchers.Default) { sampleHash(art) }
+            // Compared with what is on screen rather than what was last passed in, since the
+            // update for earlier art may have been cancelled before it was shown.
+            if (hash == shownHash && hash != UNKNOWN_HASH) {
+                return@launch
+            }
+            if (maxOf(art.width, art.height) <= targetSize) {
+                show(art, hash)
+                return@launch
+            }
+            val scaled = withContext(Dispatchers.Default) {
+                ensureActive()
+                scale(art, targetSize)
+            }
+            show(scaled, hash, owned = true)
+        }
+    }
+
+    /**
+     * Stops any pending update and drops the pooled bitmaps.
+     */
+    fun release() {
+        scope.cancel()
+        pool.clear()
+    }
+
+    private fun show(bitmap: Bitmap?, hash: Long, owned: Boolean = false) {
+        if (bitmap == null) {
+            view.setImageResource(placeholder)
+        } else {
+            view.setImageBitmap(bitmap)
+        }
+        shown?.let { pool.put(it) }
+        shown = if (owned) bitmap else null
+        shownHash = hash
+    }
+
+    private fun targetSize(): Int {
+        val size = maxOf(view.width, view.height)
+        if (size > 0) {
+            return size
+        }
+        val metrics = view.resources.displayMetrics
+        return minOf(metrics.widthPixels, metrics.heightPixels)
+    }
+
+    /**
+     * Scales [art] so that its longer side is [targetSize], into a pooled bitmap.
+     */
+    private fun scale(art: Bitmap, targetSize: Int): Bitmap {
+        val ratio = targetSize.toFloat() / maxOf(art.width, art.height)
+        val width = maxOf(1, Math.round(art.width * ratio))
+        val height = maxOf(1, Math.round(art.height * ratio))
+        val scaled = pool.get(width, height, Bitmap.Config.ARGB_8888)
+        // Pooled bitmaps still hold the pixels of the art they showed before, which would show
+        // through transparent parts of this one.
+        scaled.eraseColor(Color.TRANSPARENT)
+        val canvas = Canvas(scaled)
+        canvas.drawBitmap(art, null, Rect(0, 0, width, height), paint)
+        return scaled
+    }
+
+    /**
+     * Returns a hash of the size, config and byte count of [art], and of up to [SAMPLED_ROWS]
+     * of its rows spread evenly from top to bottom, so that full resolution art resent by an app
+     * costs a few rows rather than every pixel. Never returns [UNKNOWN_HASH].
+     */
+    private fun sampleHash(art: Bitmap): Long {
+        var hash = (art.width.toLong() shl 32) or art.height.toLong()
+        hash = (hash xor (art.config?.ordinal ?: -1).toLong()) * FNV_PRIME
+        hash = (hash xor art.byteCount.toLong()) * FNV_PRIME
+        val row = IntArray(art.width)
+        val rows = minOf(art.height, SAMPLED_ROWS)
+        for (i in 0 until rows) {
+            val y = (i.toLong() * art.height / rows).toInt()
+            art.getPixels(row, 0, art.width, 0, y, art.width, 1)
+            for (pixel in row) {
+                hash = (hash xor pixel.toLong()) * FNV_PRIME
+            }
+        }
+        return if (hash == UNKNOWN_HASH) 1L else hash
+    }
+
+    private fun isHardware(art: Bitmap) = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O &&
+            art.config == Bitmap.Config.HARDWARE
+
+    private companion object {
+        const val POOL_BYTES = 8 * 1024 * 1024
+        const val FNV_PRIME = 0x100000001b3L
+        const val SAMPLED_ROWS = 32
+        const val UNKNOWN_HASH = 0L
+    }
+}
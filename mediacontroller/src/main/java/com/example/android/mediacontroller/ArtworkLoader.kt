@@ -0,0 +1,318 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.content.ContentResolver
+import android.content.Context
+import android.content.pm.PackageManager
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.drawable.Drawable
+import android.net.Uri
+import android.util.Log
+import android.util.LruCache
+import android.widget.ImageView
+import androidx.core.content.res.ResourcesCompat
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.WeakHashMap
+
+/**
+ * Loads media artwork from content://, android.resource:// and file:// URIs into [ImageView]s
+ * without decoding on the main thread.
+ *
+ * Artwork is decoded downsampled to the size of the view, and kept in a memory LRU bounded by
+ * bitmap bytes. Artwork from content:// and android.resource:// URIs, which each cost an IPC to
+ * the media app, is also kept downsampled on disk. Loading into a view cancels the view's
+ * previous load, and views waiting for the same artwork at the same size share a single decode.
+ * URIs that can't be decoded are remembered, along with the drawable shown instead for
+ * android.resource:// URIs, so they aren't tried again every time they are bound.
+ *
+ * All methods must be called on the main thread.
+ */
+class ArtworkLoader private constructor(context: Context) {
+    private val contentResolver = context.contentResolver
+    private val packageManager = context.packageManager
+    private val defaultSize = context.resources.getDimensionPixelSize(R.dimen.app_icon_size)
+    private val diskCache = DiskCache(File(context.cacheDir, DISK_CACHE_DIR), MAX_DISK_BYTES)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+
+    private val memoryCache = object : LruCache<String, Bitmap>(
+            (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION).toInt()) {
+        override fun sizeOf(key: String, value: Bitmap) = value.allocationByteCount
+    }
+
+    /**
+     * Artwork that couldn't be decoded, and the drawable to show instead, if any.
+     */
+    private class Failure(val fallback: Drawable.ConstantState?)
+
+    // Failures by URI, since they don't depend on the size
+    private val failures = LruCache<String, Failure>(MAX_FAILURES)
+
+    private class InFlight(val decode: Deferred<Bitmap?>) {
+        var waiters = 0
+    }
+
+    private val inFlight = HashMap<String, InFlight>()
+    private val requests = WeakHashMap<ImageView, Job>()
+
+    /**
+     * Shows the artwork at [uri] in [view], or clears it if [uri] is null. Any load still
+     * pending for [view] is cancelled.
+     */
+    fun load(view: ImageView, uri: Uri?) {
+        cancel(view)
+        if (uri == null) {
+            view.setImageDrawable(null)
+            return
+        }
+        val size = targetSize(view)
+        val key = "$uri@$size"
+        memoryCache.get(key)?.let {
+            view.setImageBitmap(it)
+            return
+        }
+        failures.get(uri.toString())?.let {
+            showFallback(view, it)
+            return
+        }
+
+        view.setImageDrawable(null)
+        requests[view] = scope.launch {
+            val request = inFlight.getOrPut(key) {
+                InFlight(scope.async { decode(uri, key, size) })
+            }
+            request.waiters++
+            try {
+                val bitmap = request.decode.await()
+                if (bitmap != null) {
+                    view.setImageBitmap(bitmap)
+                } else {
+                    failures.get(uri.toString())?.let { showFallback(view, it) }
+                }
+            } finally {
+                if (--request.waiters == 0) {
+                    inFlight.remove(key)
+                    request.decode.cancel()
+                }
+                if (requests[view] == coroutineContext[Job]) {
+                    requests.remove(view)
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the load pending for [view], if any. The decode itself is only cancelled once no
+     * other view is waiting for it.
+     */
+    fun cancel(view: ImageView) {
+        requests.remove(view)?.cancel()
+    }
+
+    private fun showFallback(view: ImageView, failure: Failure) {
+        view.setImageDrawable(failure.fallback?.newDrawable())
+    }
+
+    private fun targetSize(view: ImageView): Int {
+        val params = view.layoutParams
+        val size = maxOf(params?.width ?: 0, params?.height ?: 0)
+        return if (size > 0) size else maxOf(view.width, view.height, defaultSize)
+    }
+
+    private suspend fun decode(uri: Uri, key: String, size: Int): Bitmap? {
+        val cacheable = uri.scheme == ContentResolver.SCHEME_CONTENT ||
+                uri.scheme == ContentResolver.SCHEME_ANDROID_RESOURCE
+        val bitmap = withContext(Dispatchers.IO) {
+            if (cacheable) {
+                diskCache.get(key)?.let { return@withContext it }
+            }
+            val decoded = try {
+                decodeSampled(uri, size)
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to load artwork from $uri", e)
+                null
+            } catch (e: RuntimeException) {
+                // Includes SecurityException, if the media app doesn't grant access to the URI.
+                Log.w(TAG, "Failed to load artwork from $uri", e)
+                null
+            }
+            ensureActive()
+            if (decoded == null) {
+                failures.put(uri.toString(), Failure(loadFallback(uri)))
+            } else if (cacheable) {
+                diskCache.put(key, decoded)
+            }
+            decoded
+        }
+        bitmap?.let { memoryCache.put(key, it) }
+        return bitmap
+    }
+
+    /**
+     * Loads an android.resource:// URI that isn't a bitmap, such as a vector drawable, as a
+     * drawable. Returns null for other URIs, or if the resource can't be found.
+     */
+    private fun loadFallback(uri: Uri): Drawable.ConstantState? {
+        if (uri.scheme != ContentResolver.SCHEME_ANDROID_RESOURCE) {
+            return null
+        }
+        val packageName = uri.authority ?: return null
+        return try {
+            val resources = packageManager.getResourcesForApplication(packageName)
+            val segments = uri.pathSegments
+            // Either android.resource://package/id or android.resource://package/type/name
+            val id = when (segments.size) {
+                1 -> segments[0].toInt()
+                2 -> resources.getIdentifier(segments[1], segments[0], packageName)
+                else -> 0
+            }
+            if (id == 0) null else ResourcesCompat.getDrawable(resources, id, null)?.constantState
+        } catch (e: PackageManager.NameNotFoundException) {
+            null
+        } catch (e: RuntimeException) {
+            // Includes Resources.NotFoundException and NumberFormatException.
+            Log.w(TAG, "Failed to load fallback artwork from $uri", e)
+            null
+        }
+    }
+
+    /**
+     * Decodes the image at [uri] with the largest power of two sample size that still keeps it
+     * at least [size] pixels on its shorter side.
+     */
+    private fun decodeSampled(uri: Uri, size: Int): Bitmap? {
+        val options = BitmapFactory.Options()
+        options.inJustDecodeBounds = true
+        val bounds = contentResolver.openInputStream(uri) ?: return null
+        bounds.use { BitmapFactory.decodeStream(it, null, options) }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null
+        }
+
+        var sampleSize = 1
+        while (minOf(options.outWidth, options.outHeight) / (sampleSize * 2) >= size) {
+            sampleSize *= 2
+        }
+        options.inJustDecodeBounds = false
+        options.inSampleSize = sampleSize
+        return contentResolver.openInputStream(uri)?.use {
+            BitmapFactory.decodeStream(it, null, options)
+        }
+    }
+
+    /**
+     * Directory of downsampled artwork, named after the fingerprint of the cache key. Files are
+     * touched when read, and the least recently used ones are deleted once the directory grows
+     * past [maxBytes]. Used from IO dispatcher threads, so every access is synchronized.
+     */
+    private class DiskCache(private val directory: File, private val maxBytes: Long) {
+        private var sizeBytes = -1L
+
+        @Synchronized
+        fun get(key: String): Bitmap? {
+            val file = fileFor(key)
+            if (!file.exists()) {
+                return null
+            }
+            val bitmap = BitmapFactory.decodeFile(file.path)
+            if (bitmap == null) {
+                file.delete()
+                return null
+            }
+            file.setLastModified(System.currentTimeMillis())
+            return bitmap
+        }
+
+        @Synchronized
+        fun put(key: String, bitmap: Bitmap) {
+            if (!directory.isDirectory && !directory.mkdirs()) {
+                return
+            }
+            val file = fileFor(key)
+            val temp = File(directory, file.name + TEMP_SUFFIX)
+            try {
+                FileOutputStream(temp).use {
+                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, it)
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to cache artwork", e)
+                temp.delete()
+                return
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete()
+                return
+            }
+            if (sizeBytes < 0) {
+                sizeBytes = directory.listFiles()?.sumOf { it.length() } ?: 0L
+            } else {
+                sizeBytes += file.length()
+            }
+            if (sizeBytes > maxBytes) {
+                trim()
+            }
+        }
+
+        private fun trim() {
+            val files = directory.listFiles() ?: return
+            files.sortBy { it.lastModified() }
+            sizeBytes = files.sumOf { it.length() }
+            for (file in files) {
+                if (sizeBytes <= maxBytes * 3 / 4) {
+                    break
+                }
+                val length = file.length()
+                if (file.delete()) {
+                    sizeBytes -= length
+                }
+            }
+        }
+
+        private fun fileFor(key: String) =
+                File(directory, java.lang.Long.toHexString(BinarySnapshotFormat.fingerprint(key)))
+    }
+
+    companion object {
+        private const val TAG = "ArtworkLoader"
+        private const val DISK_CACHE_DIR = "artwork"
+        private const val TEMP_SUFFIX = ".tmp"
+        private const val MAX_DISK_BYTES = 20L * 1024 * 1024
+        private const val MEMORY_CACHE_FRACTION = 8
+        private const val MAX_FAILURES = 64
+
+        private var instance: ArtworkLoader? = null
+
+        /**
+         * Returns the loader shared by the whole app, so that artwork cached by one screen is
+         * reused by the others.
+         */
+        @JvmStatic
+        fun get(context: Context): ArtworkLoader =
+                instance ?: ArtworkLoader(context.applicationContext).also { instance = it }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import java.nio.ByteBuffer
+
+/**
+ * Layout of the binary browse tree snapshot format.
+ *
+ * A snapshot starts with [MAGIC] and [VERSION], followed by length-prefixed records in DFS
+ * preorder. Each record is a type byte, a varint payload length and the payload. Strings that
+ * tend to repeat (media ID and URI prefixes, subtitles) are written once as [RECORD_STRING]
+ * records and referenced by index afterwards, so a sequential reader always sees a string before
+ * it is used. [RECORD_END] marks the end of the records.
+ *
+ * A completed snapshot has a [RECORD_LOAD_STATS] record after the last node. For each depth it
+ * holds the depth, the number of loads and the p50/p95/p99 of the load latency in microseconds,
+ * child count and payload bytes, followed by the slowest loads as (depth, latency in
+ * microseconds, child count, payload bytes, parent ID). All numbers are varints.
+ *
+ * The footer follows [RECORD_END]:
+ *  - the file offset of every string record, as longs in string index order,
+ *  - (media ID fingerprint, node offset) pairs sorted by fingerprint, then offset,
+ *  - a [TAIL_SIZE] byte tail locating both tables and ending with [END_MAGIC].
+ *
+ * String fields are a varint tag, optionally followed by UTF-8 bytes. A tag of 0 is null, an odd
+ * tag refers to string number (tag ushr 1), and an even tag is followed by (tag ushr 1) - 1
+ * bytes of inline text. Media IDs and URIs are split into a prefix, up to the last '/' or ':',
+ * and a suffix; only the prefix is interned.
+ */
+object BinarySnapshotFormat {
+    const val MAGIC = 0x4D425453 // "MBTS"
+    const val END_MAGIC = 0x4D425445 // "MBTE"
+    const val VERSION = 1
+    const val HEADER_SIZE = 8
+    const val TAIL_SIZE = 28
+
+    const val RECORD_END = 0
+    const val RECORD_STRING = 1
+    const val RECORD_NODE = 2
+    const val RECORD_TRAILER = 3
+    const val RECORD_LOAD_STATS = 4
+
+    /**
+     * Returns a 64 bit fingerprint of a media ID. FNV-1a over the UTF-16 code units, followed by
+     * the MurmurHash3 finalizer so that IDs differing only in their last characters still
+     * spread over all bits.
+     */
+    fun fingerprint(mediaId: String): Long {
+        var hash = -0x340d631b7bdddcdbL // FNV-1a 64 bit offset basis
+        for (i in mediaId.indices) {
+            hash = (hash xor mediaId[i].code.toLong()) * 0x100000001b3L
+        }
+        hash = (hash xor (hash ushr 33)) * -0xae502812aa7333L
+        hash = (hash xor (hash ushr 33)) * -0x3b314601e57a13adL
+        return hash xor (hash ushr 33)
+    }
+
+    /**
+     * Returns where to split [value] into an interned prefix and an inline suffix, or 0 if it
+     * has no useful prefix.
+     */
+    fun prefixLength(value: String): Int {
+        for (i in value.length - 2 downTo 0) {
+            val c = value[i]
+            if (c == '/' || c == ':') {
+                return i + 1
+            }
+        }
+        return 0
+    }
+
+    fun readVarint(buffer: ByteBuffer): Int {
+        var result = 0
+        var shift = 0
+        while (true) {
+            val b = buffer.get().toInt()
+            result = result or ((b and 0x7F) shl shift)
+            if (b and 0x80 == 0) {
+                return result
+            }
+            shift += 7
+        }
+    }
+}
+
+/**
+ * Growable list of primitive longs.
+ */
+internal class LongArrayList(initialCapacity: Int = 1024) {
+    var values = LongArray(initialCapacity)
+        private set
+    var size = 0
+        private set
+
+    fun add(value: Long) {
+        if (size == values.size) {
+            values = values.copyOf(size * 2)
+        }
+        values[size++] = value
+    }
+
+    operator fun get(index: Int) = values[index]
+}
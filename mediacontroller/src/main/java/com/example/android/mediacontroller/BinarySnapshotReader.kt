@@ -0,0 +1,398 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import com.example.android.mediacontroller.BinarySnapshotFormat.END_MAGIC
+import com.example.android.mediacontroller.BinarySnapshotFormat.HEADER_SIZE
+import com.example.android.mediacontroller.BinarySnapshotFormat.MAGIC
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_END
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_NODE
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_STRING
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_TRAILER
+import com.example.android.mediacontroller.BinarySnapshotFormat.TAIL_SIZE
+import com.example.android.mediacontroller.BinarySnapshotFormat.VERSION
+import com.example.android.mediacontroller.BinarySnapshotFormat.readVarint
+import java.io.Closeable
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * A media item as recorded in a snapshot.
+ */
+data class SnapshotNode(val depth: Int,
+                        val flags: Int,
+                        val mediaId: String?,
+                        val title: String?,
+                        val subtitle: String?,
+                        val description: String?,
+                        val mediaUri: String?,
+                        val iconUri: String?) {
+    val isBrowsable
+        get() = flags and FLAG_BROWSABLE != 0
+
+    val isPlayable
+        get() = flags and FLAG_PLAYABLE != 0
+
+    val hasIconBitmap
+        get() = flags and FLAG_ICON_BITMAP != 0
+
+    companion object {
+        // Same values as MediaItem.FLAG_BROWSABLE and FLAG_PLAYABLE.
+        const val FLAG_BROWSABLE = 1
+        const val FLAG_PLAYABLE = 2
+        const val FLAG_ICON_BITMAP = 4
+    }
+}
+
+/**
+ * Reads snapshots written by [BinarySnapshotWriter].
+ *
+ * Nodes can be streamed in DFS order with [forEachNode], which also works on snapshots that were
+ * cut short and have no footer. Single nodes and subtrees are looked up through the media ID
+ * index with a handful of positional reads, without reading the rest of the file.
+ */
+class BinarySnapshotReader(private val channel: FileChannel) : Closeable {
+
+    constructor(file: File) : this(RandomAccessFile(file, "r").channel)
+
+    class Trailer(val visitedCount: Int,
+                  val frontier: List<BrowseTreeSnapshotState.FrontierEntry>)
+
+    private val fileSize = channel.size()
+
+    private val window = ByteBuffer.allocate(WINDOW_SIZE)
+    private var windowStart = 0L
+
+    private val stringTableOffset: Long
+    private val indexOffset: Long
+    private val recordsEnd: Long
+
+    /**
+     * Number of strings in the string table.
+     */
+    val stringCount: Int
+
+    /**
+     * Number of nodes in the media ID index.
+     */
+    val indexedNodeCount: Int
+
+    /**
+     * False if the snapshot has no footer, in which case only [forEachNode] can be used.
+     */
+    val hasIndex: Boolean
+
+    private val stringCache = object : LinkedHashMap<Int, String>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, String>?) =
+                size > STRING_CACHE_SIZE
+    }
+
+    init {
+        window.limit(0)
+        if (fileSize < HEADER_SIZE) {
+            throw IOException("Not a browse tree snapshot")
+        }
+        val header = read(0L, HEADER_SIZE)
+        if (header.int != MAGIC) {
+            throw IOException("Not a browse tree snapshot")
+        }
+        if (header.int != VERSION) {
+            throw IOException("Unsupported snapshot version")
+        }
+
+        var tail: ByteBuffer? = null
+        if (fileSize >= HEADER_SIZE + TAIL_SIZE) {
+            tail = read(fileSize - TAIL_SIZE, TAIL_SIZE)
+            if (tail.getInt(TAIL_SIZE - 4) != END_MAGIC) {
+                tail = null
+            }
+        }
+        if (tail != null) {
+            stringTableOffset = tail.long
+            stringCount = tail.int
+            indexOffset = tail.long
+            indexedNodeCount = tail.int
+            recordsEnd = stringTableOffset
+            hasIndex = true
+        } else {
+            stringTableOffset = -1L
+            stringCount = 0
+            indexOffset = -1L
+            indexedNodeCount = 0
+            recordsEnd = fileSize
+            hasIndex = false
+        }
+    }
+
+    /**
+     * Calls [visitor] with every node in DFS preorder.
+     *
+     * @return The trailer of an interrupted snapshot, or null if it completed.
+     */
+    fun forEachNode(visitor: (SnapshotNode) -> Unit): Trailer? {
+        val strings = ArrayList<String>()
+        var trailer: Trailer? = null
+        var position = HEADER_SIZE.toLong()
+        while (position < recordsEnd) {
+            val record = readRecord(position) ?: break
+            when (record.type) {
+                RECORD_STRING -> strings.add(decodeString(record.payload))
+                RECORD_NODE -> visitor(decodeNode(record.payload) { strings[it] })
+                RECORD_TRAILER -> trailer = decodeTrailer(record.payload)
+                RECORD_END -> return trailer
+            }
+            position = record.end
+        }
+        return trailer
+    }
+
+    /**
+     * Returns the first node with [mediaId], or null if there is none.
+     */
+    fun findNode(mediaId: String): SnapshotNode? {
+        val offset = findOffset(mediaId)
+        if (offset < 0) {
+            return null
+        }
+        return decodeNode(readDetachedRecord(offset)!!.payload, ::stringAt)
+    }
+
+    /**
+     * Calls [visitor] with the first node with [mediaId], followed by all of its descendants in
+     * DFS preorder.
+     *
+     * @return False if there is no node with that ID.
+     */
+    fun forEachInSubtree(mediaId: String, visitor: (SnapshotNode) -> Unit): Boolean {
+        var position = findOffset(mediaId)
+        if (position < 0) {
+            return false
+        }
+        var record = readDetachedRecord(position)!!
+        val root = decodeNode(record.payload, ::stringAt)
+        visitor(root)
+
+        position = record.end
+        while (position < recordsEnd) {
+            record = readDetachedRecord(position) ?: break
+            if (record.type == RECORD_NODE) {
+                val node = decodeNode(record.payload, ::stringAt)
+                if (node.depth <= root.depth) {
+                    break
+                }
+                visitor(node)
+            } else if (record.type != RECORD_STRING) {
+                break
+            }
+            position = record.end
+        }
+        return true
+    }
+
+    override fun close() {
+        channel.close()
+    }
+
+    /**
+     * Binary searches the index for the first node whose media ID is [mediaId], returning its
+     * offset or -1.
+     */
+    private fun findOffset(mediaId: String): Long {
+        check(hasIndex) { "Snapshot has no index" }
+        val fingerprint = BinarySnapshotFormat.fingerprint(mediaId)
+        var low = 0
+        var high = indexedNodeCount
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (readIndexEntry(mid).long < fingerprint) {
+                low = mid + 1
+            } else {
+                high = mid
+            }
+        }
+
+        // Fingerprints can collide, so confirm the ID of every candidate.
+        for (i in low until indexedNodeCount) {
+            val entry = readIndexEntry(i)
+            if (entry.long != fingerprint) {
+                break
+            }
+            val offset = entry.long
+            val node = decodeNode(readDetachedRecord(offset)!!.payload, ::stringAt)
+            if (node.mediaId == mediaId) {
+                return offset
+            }
+        }
+        return -1L
+    }
+
+    private fun readIndexEntry(index: Int): ByteBuffer {
+        val entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE)
+        readFully(entry, indexOffset + index.toLong() * INDEX_ENTRY_SIZE)
+        entry.flip()
+        return entry
+    }
+
+    private fun stringAt(index: Int): String {
+        stringCache[index]?.let { return it }
+        val offsetBuffer = ByteBuffer.allocate(8)
+        readFully(offsetBuffer, stringTableOffset + index.toLong() * 8)
+        val value = decodeString(readRecord(offsetBuffer.getLong(0))!!.payload)
+        stringCache[index] = value
+        return value
+    }
+
+    private class Record(val type: Int, val payload: ByteBuffer, val end: Long)
+
+    /**
+     * Reads the record at [position], or returns null if the file ends before it does.
+     */
+    private fun readRecord(position: Long): Record? {
+        val available = (recordsEnd - position).coerceAtMost(MAX_RECORD_HEADER.toLong()).toInt()
+        if (available < 1) {
+            return null
+        }
+        return try {
+            val header = read(position, available)
+            val type = header.get().toInt()
+            val length = readVarint(header)
+            val payloadStart = position + header.position()
+            if (payloadStart + length > recordsEnd) {
+                return null
+            }
+            Record(type, read(payloadStart, length), payloadStart + length)
+        } catch (e: RuntimeException) {
+            // A varint that runs past the end of a truncated file.
+            null
+        }
+    }
+
+    /**
+     * Like [readRecord], but with the payload copied out of the read-ahead window. Looking up
+     * an interned string moves the window, so a payload that refers to the string table must be
+     * detached before it is decoded with [stringAt].
+     */
+    private fun readDetachedRecord(position: Long): Record? {
+        val record = readRecord(position) ?: return null
+        val payload = ByteBuffer.allocate(record.payload.remaining())
+        payload.put(record.payload)
+        payload.flip()
+        return Record(record.type, payload, record.end)
+    }
+
+    private fun decodeNode(payload: ByteBuffer, strings: (Int) -> String): SnapshotNode {
+        val depth = readVarint(payload)
+        val flags = readVarint(payload)
+        val mediaId = decodeSplit(payload, strings)
+        val title = decodeText(payload, strings)
+        val subtitle = decodeText(payload, strings)
+        val description = decodeText(payload, strings)
+        val mediaUri = decodeSplit(payload, strings)
+        val iconUri = decodeSplit(payload, strings)
+        return SnapshotNode(depth, flags, mediaId, title, subtitle, description, mediaUri,
+                iconUri)
+    }
+
+    private fun decodeTrailer(payload: ByteBuffer): Trailer {
+        val visitedCount = readVarint(payload)
+        val frontierSize = readVarint(payload)
+        val frontier = ArrayList<BrowseTreeSnapshotState.FrontierEntry>(frontierSize)
+        for (i in 0 until frontierSize) {
+            val depth = readVarint(payload)
+            val expanded = payload.get().toInt() != 0
+            val parentId = decodeText(payload) { throw IOException("Unexpected string reference") }
+            val mediaId = decodeText(payload) { throw IOException("Unexpected string reference") }
+            frontier.add(BrowseTreeSnapshotState.FrontierEntry(depth, expanded, parentId ?: "",
+                    mediaId ?: ""))
+        }
+        return Trailer(visitedCount, frontier)
+    }
+
+    private fun decodeSplit(payload: ByteBuffer, strings: (Int) -> String): String? {
+        val prefix = decodeText(payload, strings)
+        val suffix = decodeText(payload, strings)
+        return when {
+            prefix == null -> suffix
+            suffix == null -> prefix
+            else -> prefix + suffix
+        }
+    }
+
+    private fun decodeText(payload: ByteBuffer, strings: (Int) -> String): String? {
+        val tag = readVarint(payload)
+        return when {
+            tag == 0 -> null
+            tag and 1 == 1 -> strings(tag ushr 1)
+            else -> {
+                val length = (tag ushr 1) - 1
+                val value = String(payload.array(), payload.arrayOffset() + payload.position(),
+                        length, Charsets.UTF_8)
+                payload.position(payload.position() + length)
+                value
+            }
+        }
+    }
+
+    private fun decodeString(payload: ByteBuffer) = String(payload.array(),
+            payload.arrayOffset() + payload.position(), payload.remaining(), Charsets.UTF_8)
+
+    /**
+     * Returns [length] bytes starting at [position], served from a read-ahead window so that
+     * sequential reads don't hit the channel for every record.
+     */
+    private fun read(position: Long, length: Int): ByteBuffer {
+        if (length > WINDOW_SIZE) {
+            val buffer = ByteBuffer.allocate(length)
+            readFully(buffer, position)
+            buffer.flip()
+            return buffer
+        }
+        if (position < windowStart || position + length > windowStart + window.limit()) {
+            window.clear()
+            window.limit(minOf(WINDOW_SIZE.toLong(), fileSize - position).toInt())
+            readFully(window, position)
+            window.flip()
+            windowStart = position
+        }
+        val start = (position - windowStart).toInt()
+        val view = window.duplicate()
+        view.limit(start + length)
+        view.position(start)
+        return view.slice()
+    }
+
+    private fun readFully(buffer: ByteBuffer, position: Long) {
+        var offset = position
+        while (buffer.hasRemaining()) {
+            val read = channel.read(buffer, offset)
+            if (read < 0) {
+                throw EOFException()
+            }
+            offset += read
+        }
+    }
+
+    companion object {
+        private const val WINDOW_SIZE = 64 * 1024
+        private const val INDEX_ENTRY_SIZE = 16
+        private const val MAX_RECORD_HEADER = 6
+        private const val STRING_CACHE_SIZE = 4096
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.support.v4.media.MediaBrowserCompat.MediaItem
+import com.example.android.mediacontroller.BinarySnapshotFormat.END_MAGIC
+import com.example.android.mediacontroller.BinarySnapshotFormat.MAGIC
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_END
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_LOAD_STATS
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_NODE
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_STRING
+import com.example.android.mediacontroller.BinarySnapshotFormat.RECORD_TRAILER
+import com.example.android.mediacontroller.BinarySnapshotFormat.VERSION
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+
+/**
+ * Writes the indexed binary snapshot format described in [BinarySnapshotFormat].
+ *
+ * The string table and media ID index are only written by [close], so unlike the text format a
+ * binary snapshot can't be appended to once it has been closed.
+ */
+class BinarySnapshotWriter(outputStream: OutputStream) : BrowseTreeSnapshotWriter {
+    private val output = CountingOutputStream(BufferedOutputStream(outputStream, BUFFER_SIZE))
+    private val record = RecordBuffer()
+
+    private val strings = HashMap<String, Int>()
+    private val stringOffsets = LongArrayList()
+    private val indexFingerprints = LongArrayList()
+    private val indexOffsets = LongArrayList()
+    private var closed = false
+
+    init {
+        writeInt(MAGIC)
+        writeInt(VERSION)
+    }
+
+    override fun writeHeader() {
+        // The header is written up front, so that even an empty snapshot is recognizable.
+    }
+
+    override fun writeNode(item: MediaItem, depth: Int) {
+        val description = item.description
+        var flags = item.flags and (MediaItem.FLAG_BROWSABLE or MediaItem.FLAG_PLAYABLE)
+        if (description.iconBitmap != null) {
+            flags = flags or SnapshotNode.FLAG_ICON_BITMAP
+        }
+
+        record.reset()
+        record.writeVarint(depth)
+        record.writeVarint(flags)
+        writeSplit(description.mediaId)
+        record.writeInline(description.title?.toString())
+        writeInterned(description.subtitle?.toString())
+        record.writeInline(description.description?.toString())
+        writeSplit(description.mediaUri?.toString())
+        writeSplit(description.iconUri?.toString())
+
+        val offset = output.count
+        writeRecord(RECORD_NODE)
+        description.mediaId?.let {
+            indexFingerprints.add(BinarySnapshotFormat.fingerprint(it))
+            indexOffsets.add(offset)
+        }
+    }
+
+    override fun checkpoint() {
+        output.flush()
+    }
+
+    override fun writeTrailer(visitedCount: Int, frontier: List<BrowseTreeCrawler.Node>) {
+        record.reset()
+        record.writeVarint(visitedCount)
+        record.writeVarint(frontier.size)
+        for (node in frontier) {
+            record.writeVarint(node.depth)
+            record.write(if (node.visited) 1 else 0)
+            record.writeInline(node.parentId)
+            record.writeInline(node.mediaId)
+        }
+        writeRecord(RECORD_TRAILER)
+        output.flush()
+    }
+
+    override fun writeLoadStats(stats: BrowseLoadStats) {
+        record.reset()
+        val depths = stats.depths()
+        record.writeVarint(depths.size)
+        for (depth in depths) {
+            record.writeVarint(depth.depth)
+            record.writeVarint(clamp(depth.latencyMicros.count))
+            writePercentiles(depth.latencyMicros)
+            writePercentiles(depth.childCounts)
+            writePercentiles(depth.payloadBytes)
+        }
+        val slowest = stats.slowestLoads()
+        record.writeVarint(slowest.size)
+        for (load in slowest) {
+            record.writeVarint(load.depth)
+            record.writeVarint(clamp(load.latencyMicros))
+            record.writeVarint(load.childCount)
+            record.writeVarint(load.payloadBytes)
+            record.writeInline(load.parentId)
+        }
+        writeRecord(RECORD_LOAD_STATS)
+    }
+
+    /**
+     * Writes the footer and closes the output.
+     */
+    override fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+        try {
+            record.reset()
+            writeRecord(RECORD_END)
+
+            val stringTableOffset = output.count
+            for (i in 0 until stringOffsets.size) {
+                writeLong(stringOffsets[i])
+            }
+
+            val indexOffset = output.count
+            sortIndex()
+            for (i in 0 until indexFingerprints.size) {
+                writeLong(indexFingerprints[i])
+                writeLong(indexOffsets[i])
+            }
+
+            writeLong(stringTableOffset)
+            writeInt(stringOffsets.size)
+            writeLong(indexOffset)
+            writeInt(indexFingerprints.size)
+            writeInt(END_MAGIC)
+        } finally {
+            output.close()
+        }
+    }
+
+    /**
+     * Writes a media ID or URI as an interned prefix followed by an inline suffix.
+     */
+    private fun writeSplit(value: String?) {
+        if (value == null) {
+            record.writeVarint(0)
+            record.writeVarint(0)
+            return
+        }
+        val prefixLength = BinarySnapshotFormat.prefixLength(value)
+        if (prefixLength == 0) {
+            record.writeVarint(0)
+            record.writeInline(value)
+        } else {
+            writeInterned(value.substring(0, prefixLength))
+            record.writeInline(value.substring(prefixLength))
+        }
+    }
+
+    /**
+     * Writes [value] as a reference into the string table, adding it to the table first if
+     * needed. The table stops growing at [MAX_STRINGS] entries, after which new strings are
+     * written inline.
+     */
+    private fun writeInterned(value: String?) {
+        if (value == null || value.length < MIN_INTERNED_LENGTH) {
+            record.writeInline(value)
+            return
+        }
+        var index = strings[value]
+        if (index == null) {
+            if (strings.size >= MAX_STRINGS) {
+                record.writeInline(value)
+                return
+            }
+            index = strings.size
+            strings[value] = index
+            stringOffsets.add(output.count)
+
+            // The string record goes out before the record that is being built references it.
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            output.write(RECORD_STRING)
+            writeVarint(bytes.size)
+            output.write(bytes)
+        }
+        record.writeVarint((index shl 1) or 1)
+    }
+
+    private fun writePercentiles(histogram: LogLinearHistogram) {
+        record.writeVarint(clamp(histogram.percentile(50.0)))
+        record.writeVarint(clamp(histogram.percentile(95.0)))
+        record.writeVarint(clamp(histogram.percentile(99.0)))
+    }
+
+    private fun clamp(value: Long) = value.coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+
+    private fun writeRecord(type: Int) {
+        output.write(type)
+        writeVarint(record.size())
+        record.writeTo(output)
+    }
+
+    private fun writeVarint(value: Int) {
+        var remaining = value
+        while (remaining and 0x7F.inv() != 0) {
+            output.write((remaining and 0x7F) or 0x80)
+            remaining = remaining ushr 7
+        }
+        output.write(remaining)
+    }
+
+    private fun writeInt(value: Int) {
+        output.write(value ushr 24)
+        output.write(value ushr 16)
+        output.write(value ushr 8)
+        output.write(value)
+    }
+
+    private fun writeLong(value: Long) {
+        writeInt((value ushr 32).toInt())
+        writeInt(value.toInt())
+    }
+
+    /**
+     * Heapsorts the index by fingerprint, then offset, without boxing the entries.
+     */
+    private fun sortIndex() {
+        val keys = indexFingerprints.values
+        val offsets = indexOffsets.values
+        val size = indexFingerprints.size
+
+        fun less(a: Int, b: Int) = keys[a] < keys[b] || (keys[a] == keys[b] && offsets[a] < offsets[b])
+
+        fun swap(a: Int, b: Int) {
+            val key = keys[a]
+            keys[a] = keys[b]
+            keys[b] = key
+            val offset = offsets[a]
+            offsets[a] = offsets[b]
+            offsets[b] = offset
+        }
+
+        fun siftDown(start: Int, end: Int) {
+            var root = start
+            while (true) {
+                var child = root * 2 + 1
+                if (child >= end) {
+                    return
+                }
+                if (child + 1 < end && less(child, child + 1)) {
+                    child++
+                }
+                if (!less(root, child)) {
+                    return
+                }
+                swap(root, child)
+                root = child
+            }
+        }
+
+        for (start in size / 2 - 1 downTo 0) {
+            siftDown(start, size)
+        }
+        for (end in size - 1 downTo 1) {
+            swap(0, end)
+            siftDown(0, end)
+        }
+    }
+
+    /**
+     * Reusable buffer for the payload of the record being built.
+     */
+    private class RecordBuffer : ByteArrayOutputStream(256) {
+        fun writeVarint(value: Int) {
+            var remaining = value
+            while (remaining and 0x7F.inv() != 0) {
+                write((remaining and 0x7F) or 0x80)
+                remaining = remaining ushr 7
+            }
+            write(remaining)
+        }
+
+        fun writeInline(value: String?) {
+            if (value == null) {
+                writeVarint(0)
+                return
+            }
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            writeVarint((bytes.size + 1) shl 1)
+            write(bytes, 0, bytes.size)
+        }
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+        private const val MAX_STRINGS = 1 shl 16
+        private const val MIN_INTERNED_LENGTH = 4
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.graphics.Bitmap
+
+/**
+ * Bitmaps that are no longer shown, kept so that a bitmap of the same size and config can be
+ * drawn into again instead of being allocated.
+ *
+ * Only bitmaps that the caller allocated itself may be put in the pool. Once bitmaps take up more
+ * than [maxBytes], the oldest ones are dropped.
+ */
+class BitmapPool(private val maxBytes: Int) {
+    private val bitmaps = ArrayDeque<Bitmap>()
+    private var sizeBytes = 0
+
+    /**
+     * Returns a pooled bitmap with the given size and config, or allocates a new one. The
+     * contents of a pooled bitmap are not cleared.
+     */
+    @Synchronized
+    fun get(width: Int, height: Int, config: Bitmap.Config): Bitmap {
+        val iterator = bitmaps.iterator()
+        while (iterator.hasNext()) {
+            val bitmap = iterator.next()
+            if (bitmap.width == width && bitmap.height == height && bitmap.config == config) {
+                iterator.remove()
+                sizeBytes -= bitmap.allocationByteCount
+                return bitmap
+            }
+        }
+        return Bitmap.createBitmap(width, height, config)
+    }
+
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        if (bitmap.isRecycled || !bitmap.isMutable || bitmap.allocationByteCount > maxBytes) {
+            return
+        }
+        bitmaps.addLast(bitmap)
+        sizeBytes += bitmap.allocationByteCount
+        while (sizeBytes > maxBytes) {
+            sizeBytes -= bitmaps.removeFirst().allocationByteCount
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        bitmaps.clear()
+        sizeBytes = 0
+    }
+}
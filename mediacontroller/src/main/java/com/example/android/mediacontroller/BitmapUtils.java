@@ -17,18 +17,39 @@ package com.example.android.mediacontroller;
 
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.PorterDuff;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.util.LruCache;
 
+import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Utility class for {@link Bitmap}s.
  */
 public final class BitmapUtils {
+    private static final int ICON_CACHE_BYTES = 4 * 1024 * 1024;
+
+    // Icons made by convertIcon, by cache key and size
+    private static final LruCache<String, Bitmap> sIconCache =
+            new LruCache<String, Bitmap>(ICON_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getAllocationByteCount();
+                }
+            };
+
+    // Toolbar icons, by the icon they were made from
+    private static final Map<Bitmap, Bitmap> sToolbarIcons = new WeakHashMap<>();
 
     private BitmapUtils() {
         // Utility class.
@@ -45,50 +66,234 @@ public final class BitmapUtils {
     public static Bitmap convertDrawable(@NonNull final Resources resources,
                                          @NonNull final Drawable drawable,
                                          final boolean downScale) {
+        final int maxSize = downScale
+                ? resources.getDimensionPixelSize(R.dimen.app_icon_size)
+                : Integer.MAX_VALUE;
+        return convertDrawable(resources, drawable, maxSize, maxSize);
+    }
 
-        final Bitmap bitmap;
-        if (drawable instanceof BitmapDrawable) {
-            bitmap = ((BitmapDrawable) drawable).getBitmap();
+    /**
+     * Converts a {@link Drawable} to a {@link Bitmap} that fits in the given box, keeping its
+     * aspect ratio.
+     * <p>
+     * The drawable is drawn once, straight at the final size. Vector and adaptive drawables are
+     * rasterized to fill the box, even when their intrinsic size is smaller, so they stay sharp
+     * at the size they are shown at, and bitmaps are downscaled with filtering. Opaque drawables
+     * are drawn into an RGB_565 Bitmap. A {@link BitmapDrawable} that already fits is returned
+     * as is.
+     *
+     * @param resources Resources for the current {@link android.content.Context}.
+     * @param drawable  The {@link Drawable} to convert to a Bitmap.
+     * @param maxWidth  The largest width of the Bitmap, in pixels.
+     * @param maxHeight The largest height of the Bitmap, in pixels.
+     * @return A Bitmap no larger than {@code maxWidth} x {@code maxHeight}.
+     */
+    public static Bitmap convertDrawable(@NonNull final Resources resources,
+                                         @NonNull final Drawable drawable,
+                                         final int maxWidth,
+                                         final int maxHeight) {
+
+        final Bitmap source =
+                drawable instanceof BitmapDrawable ? ((BitmapDrawable) drawable).getBitmap() : null;
+        int width = source != null ? source.getWidth() : drawable.getIntrinsicWidth();
+        int height = source != null ? source.getHeight() : drawable.getIntrinsicHeight();
+
+        if (width <= 0 || height <= 0) {
+            // No intrinsic size, such as a ColorDrawable, so fill the box, or an icon's space.
+            final int iconSize = resources.getDimensionPixelSize(R.dimen.app_icon_size);
+            width = maxWidth != Integer.MAX_VALUE ? maxWidth : iconSize;
+            height = maxHeight != Integer.MAX_VALUE ? maxHeight : iconSize;
+        }
+
+        final float ratio = fitRatio(width, height, maxWidth, maxHeight);
+        if (source != null && ratio >= 1f) {
+            return source;
+        }
+        // Only bitmaps would lose detail if scaled up, and only a bounded box can be filled.
+        final boolean bounded = maxWidth != Integer.MAX_VALUE || maxHeight != Integer.MAX_VALUE;
+        if (ratio < 1f || source == null && bounded) {
+            width = scaledSize(width, ratio);
+            height = scaledSize(height, ratio);
+        }
+
+        // HARDWARE Bitmaps can't be drawn into the software canvas of createToolbarIcon, so
+        // only opaque drawables get a smaller config.
+        final boolean opaque = drawable.getOpacity() == PixelFormat.OPAQUE;
+        final Bitmap bitmap = Bitmap.createBitmap(width, height,
+                opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        if (source != null) {
+            canvas.drawBitmap(source, null, new Rect(0, 0, width, height),
+                    new Paint(Paint.FILTER_BITMAP_FLAG));
         } else {
-            bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
-                    drawable.getIntrinsicHeight(),
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = new Canvas(bitmap);
-            drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+            final Rect bounds = drawable.copyBounds();
+            drawable.setBounds(0, 0, width, height);
             drawable.draw(canvas);
+            drawable.setBounds(bounds);
         }
+        return bitmap;
+    }
 
-        if (!downScale) {
-            return bitmap;
+    /**
+     * Decodes a bitmap resource to a {@link Bitmap} that fits in the given box, keeping its
+     * aspect ratio. The resource is subsampled while it is decoded, so a large image is never
+     * held at full size, and then downscaled the rest of the way with filtering. JPEGs, which
+     * can't be transparent, are decoded to RGB_565, as are the downscaled copies of other opaque
+     * images.
+     *
+     * @param resources Resources of the package the resource belongs to.
+     * @param resId     The id of the bitmap resource.
+     * @param maxWidth  The largest width of the Bitmap, in pixels.
+     * @param maxHeight The largest height of the Bitmap, in pixels.
+     * @return A Bitmap no larger than {@code maxWidth} x {@code maxHeight}, or null if the
+     * resource isn't a bitmap, such as a vector drawable.
+     */
+    @Nullable
+    public static Bitmap decodeResource(@NonNull final Resources resources,
+                                        @DrawableRes final int resId,
+                                        final int maxWidth,
+                                        final int maxHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        // Sizes are worked out here, so the density of the resource is ignored.
+        options.inScaled = false;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
         }
 
-        final int iconSize = resources.getDimensionPixelSize(R.dimen.app_icon_size);
-        if (bitmap.getHeight() > iconSize || bitmap.getWidth() > iconSize) {
-            // Which needs to be scaled to fit.
-            final int height = bitmap.getHeight();
-            final int width = bitmap.getWidth();
+        options.inJustDecodeBounds = false;
+        options.inSampleSize =
+                sampleSize(options.outWidth, options.outHeight, maxWidth, maxHeight);
+        if ("image/jpeg".equals(options.outMimeType)) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+        final Bitmap decoded = BitmapFactory.decodeResource(resources, resId, options);
+        if (decoded == null) {
+            return null;
+        }
 
-            final int scaleHeight;
-            final int scaleWidth;
+        final BitmapSize size = fitSize(decoded.getWidth(), decoded.getHeight(),
+                !decoded.hasAlpha(), maxWidth, maxHeight);
+        if (size.width == decoded.getWidth() && size.height == decoded.getHeight()) {
+            return decoded;
+        }
+        final Bitmap bitmap = Bitmap.createBitmap(size.width, size.height, size.config());
+        new Canvas(bitmap).drawBitmap(decoded, null, new Rect(0, 0, size.width, size.height),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        decoded.recycle();
+        return bitmap;
+    }
 
-            // Calculate the new size based on which dimension is larger.
-            if (height > width) {
-                scaleHeight = iconSize;
-                scaleWidth = (int) (width * ((float) iconSize) / height);
-            } else {
-                scaleWidth = iconSize;
-                scaleHeight = (int) (height * ((float) iconSize) / width);
-            }
+    /**
+     * Size and config of a bitmap.
+     */
+    static final class BitmapSize {
+        final int width;
+        final int height;
+        final boolean opaque;
 
-            return Bitmap.createScaledBitmap(bitmap, scaleWidth, scaleHeight, false);
-        } else {
-            return bitmap;
+        BitmapSize(int width, int height, boolean opaque) {
+            this.width = width;
+            this.height = height;
+            this.opaque = opaque;
+        }
+
+        Bitmap.Config config() {
+            return opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        }
+
+        /**
+         * Returns how many bytes the pixels of the bitmap take up.
+         */
+        long byteCount() {
+            return (long) width * height * (opaque ? 2 : 4);
         }
     }
 
+    /**
+     * Returns the size and config an image is kept at to fit in the given box, after it was
+     * decoded at {@code width} x {@code height}. An image that already fits keeps its size.
+     */
+    static BitmapSize fitSize(int width, int height, boolean opaque, int maxWidth,
+                              int maxHeight) {
+        final float ratio = fitRatio(width, height, maxWidth, maxHeight);
+        if (ratio >= 1f) {
+            return new BitmapSize(width, height, opaque);
+        }
+        return new BitmapSize(scaledSize(width, ratio), scaledSize(height, ratio), opaque);
+    }
+
+    /**
+     * Returns how much an image must be scaled to fit in the given box, which is 1 or more if
+     * it already fits.
+     */
+    static float fitRatio(int width, int height, int maxWidth, int maxHeight) {
+        return Math.min((float) maxWidth / width, (float) maxHeight / height);
+    }
+
+    /**
+     * Returns the largest power of two sample size that doesn't take an image below the size
+     * it is scaled to by {@link #fitRatio}.
+     */
+    static int sampleSize(int width, int height, int maxWidth, int maxHeight) {
+        final float ratio = fitRatio(width, height, maxWidth, maxHeight);
+        int sampleSize = 1;
+        while (ratio * sampleSize * 2 <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Returns the length of a side scaled by {@code ratio}, which is never less than a pixel.
+     */
+    static int scaledSize(int size, float ratio) {
+        return Math.max(1, Math.round(size * ratio));
+    }
+
+    /**
+     * Converts an app icon with {@link #convertDrawable}, downscaled, and keeps the result so
+     * that it can be returned by {@link #getCachedIcon} with the same key.
+     *
+     * @param cacheKey Identifies the icon, and must start with the package it was loaded from.
+     */
+    public static Bitmap convertIcon(@NonNull final Resources resources,
+                                     @NonNull final Drawable drawable,
+                                     @NonNull final String cacheKey) {
+        final Bitmap icon = convertDrawable(resources, drawable, true);
+        sIconCache.put(iconCacheKey(resources, cacheKey), icon);
+        return icon;
+    }
+
+    /**
+     * Returns the icon last converted by {@link #convertIcon} with this key, if it is still
+     * cached.
+     */
+    @Nullable
+    public static Bitmap getCachedIcon(@NonNull final Resources resources,
+                                       @NonNull final String cacheKey) {
+        return sIconCache.get(iconCacheKey(resources, cacheKey));
+    }
+
+    /**
+     * Drops the cached icons of a package, such as when it was updated.
+     */
+    public static void evictIcons(@NonNull final String packageName) {
+        for (String key : sIconCache.snapshot().keySet()) {
+            if (key.startsWith(packageName + "/") || key.startsWith(packageName + "@")) {
+                sIconCache.remove(key);
+            }
+        }
+    }
+
+    private static String iconCacheKey(Resources resources, String cacheKey) {
+        return cacheKey + "@" + resources.getDimensionPixelSize(R.dimen.app_icon_size);
+    }
+
     /**
      * Creates a Material Design compliant {@link androidx.appcompat.widget.Toolbar} icon
-     * from a given full sized icon.
+     * from a given full sized icon. The result is reused for as long as the icon is.
      *
      * @param resources Resources for the current {@link android.content.Context}.
      * @param icon      The bitmap to convert.
@@ -100,16 +305,25 @@ public final class BitmapUtils {
         final int iconSize = resources.getDimensionPixelSize(R.dimen.toolbar_icon_size);
         final int sizeWithPadding = iconSize + (2 * padding);
 
-        // Create a Bitmap backed Canvas to be the toolbar icon.
+        synchronized (sToolbarIcons) {
+            final Bitmap toolbarIcon = sToolbarIcons.get(icon);
+            if (toolbarIcon != null && toolbarIcon.getWidth() == sizeWithPadding) {
+                return toolbarIcon;
+            }
+        }
+
+        // Create a Bitmap backed Canvas to be the toolbar icon. A new Bitmap is transparent.
         final Bitmap toolbarIcon =
                 Bitmap.createBitmap(sizeWithPadding, sizeWithPadding, Bitmap.Config.ARGB_8888);
         final Canvas canvas = new Canvas(toolbarIcon);
-        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
 
-        // Resize the app icon to Material Design size.
-        final Bitmap scaledIcon = Bitmap.createScaledBitmap(icon, iconSize, iconSize, false);
-        canvas.drawBitmap(scaledIcon, padding, padding, null);
+        // Draw the app icon at Material Design size.
+        canvas.drawBitmap(icon, null,
+                new Rect(padding, padding, padding + iconSize, padding + iconSize), null);
 
+        synchronized (sToolbarIcons) {
+            sToolbarIcons.put(icon, toolbarIcon);
+        }
         return toolbarIcon;
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.os.Parcel
+import android.support.v4.media.MediaBrowserCompat.MediaItem
+import java.util.PriorityQueue
+
+/**
+ * Latency, child count and payload size of every browse subscription made during a crawl,
+ * grouped by the depth of the node whose children were loaded. The root is at depth 0.
+ *
+ * Recording is a few array increments, and payload sizes are estimated from a few items of each
+ * page with [estimateParceledSize], so it can stay on for every crawl. The slowest loads are
+ * kept individually so that they can be traced back to a media ID.
+ */
+class BrowseLoadStats {
+
+    class DepthStats(val depth: Int) {
+        val latencyMicros = LogLinearHistogram()
+        val childCounts = LogLinearHistogram()
+        val payloadBytes = LogLinearHistogram()
+    }
+
+    class Load(val parentId: String,
+               val depth: Int,
+               val latencyMicros: Long,
+               val childCount: Int,
+               val payloadBytes: Int)
+
+    private val depths = ArrayList<DepthStats>()
+    private val slowest = PriorityQueue<Load>(SLOWEST_LOADS + 1,
+            compareBy<Load> { it.latencyMicros })
+
+    val loadCount
+        get() = depths.sumOf { it.latencyMicros.count }
+
+    fun record(parentId: String,
+               depth: Int,
+               latencyNanos: Long,
+               childCount: Int,
+               payloadBytes: Int) {
+        while (depths.size <= depth) {
+            depths.add(DepthStats(depths.size))
+        }
+        val latencyMicros = latencyNanos / 1000
+        val stats = depths[depth]
+        stats.latencyMicros.record(latencyMicros)
+        stats.childCounts.record(childCount.toLong())
+        stats.payloadBytes.record(payloadBytes.toLong())
+
+        if (slowest.size < SLOWEST_LOADS || latencyMicros > slowest.peek()!!.latencyMicros) {
+            slowest.add(Load(parentId, depth, latencyMicros, childCount, payloadBytes))
+            if (slowest.size > SLOWEST_LOADS) {
+                slowest.poll()
+            }
+        }
+    }
+
+    /**
+     * Returns the stats of every depth that had at least one load.
+     */
+    fun depths(): List<DepthStats> = depths.filter { it.latencyMicros.count > 0 }
+
+    /**
+     * Returns the slowest loads, slowest first.
+     */
+    fun slowestLoads(): List<Load> = slowest.sortedByDescending { it.latencyMicros }
+
+    /**
+     * Returns a line per depth with the p50/p95/p99 of each metric, followed by a line per slow
+     * load.
+     */
+    fun summary(): List<String> {
+        val lines = ArrayList<String>()
+        for (stats in depths()) {
+            lines.add("Depth:${stats.depth},Loads:${stats.latencyMicros.count}," +
+                    "LatencyMs:${percentiles(stats.latencyMicros, MICROS_PER_MILLI)}," +
+                    "Children:${percentiles(stats.childCounts, 1)}," +
+                    "PayloadBytes:${percentiles(stats.payloadBytes, 1)}")
+        }
+        for (load in slowestLoads()) {
+            lines.add("Slow:Depth:${load.depth}," +
+                    "LatencyMs:${load.latencyMicros / MICROS_PER_MILLI}," +
+                    "Children:${load.childCount},PayloadBytes:${load.payloadBytes}," +
+                    "ParentId:${load.parentId}")
+        }
+        return lines
+    }
+
+    private fun percentiles(histogram: LogLinearHistogram, divisor: Long) =
+            "${histogram.percentile(50.0) / divisor}/" +
+                    "${histogram.percentile(95.0) / divisor}/" +
+                    "${histogram.percentile(99.0) / divisor}"
+
+    companion object {
+        private const val SLOWEST_LOADS = 10
+        private const val MICROS_PER_MILLI = 1000L
+        private const val SAMPLED_ITEMS = 8
+        private const val LIST_HEADER_BYTES = 4
+
+        /**
+         * Estimates how many bytes [items] take up when parceled, which is roughly what they
+         * cost in the Binder transaction that delivered them.
+         *
+         * Only up to [SAMPLED_ITEMS] items spread over the list are parceled, and the others are
+         * taken to be of their average size, so a page costs the same to measure however many
+         * items it has. Lists no longer than that are measured exactly.
+         */
+        @JvmStatic
+        fun estimateParceledSize(items: List<MediaItem>): Int {
+            val sample = if (items.size <= SAMPLED_ITEMS) {
+                items
+            } else {
+                List(SAMPLED_ITEMS) { items[it * items.size / SAMPLED_ITEMS] }
+            }
+            val parcel = Parcel.obtain()
+            try {
+                parcel.writeTypedList(sample)
+                if (sample.size == items.size) {
+                    return parcel.dataSize()
+                }
+                // The list starts with its length, followed by the items.
+                val itemBytes = (parcel.dataSize() - LIST_HEADER_BYTES).toLong()
+                return (LIST_HEADER_BYTES + itemBytes * items.size / sample.size)
+                        .coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+            } finally {
+                parcel.recycle()
+            }
+        }
+    }
+}
+
+/**
+ * Histogram of non-negative longs with buckets that grow with the value, in the style of
+ * HdrHistogram. Values below 32 are counted exactly; above that, each power of two is split into
+ * 16 buckets, so any recorded value is off by at most 1/16th.
+ */
+class LogLinearHistogram {
+    private val counts = LongArray(LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_BUCKETS)
+
+    var count = 0L
+        private set
+
+    var max = 0L
+        private set
+
+    fun record(value: Long) {
+        val clamped = value.coerceAtLeast(0L)
+        counts[indexOf(clamped)]++
+        count++
+        if (clamped > max) {
+            max = clamped
+        }
+    }
+
+    /**
+     * Returns the highest value of the bucket holding the given percentile, or 0 if nothing was
+     * recorded.
+     */
+    fun percentile(percentile: Double): Long {
+        if (count == 0L) {
+            return 0L
+        }
+        val rank = Math.ceil(count * percentile.coerceIn(0.0, 100.0) / 100.0).toLong()
+                .coerceAtLeast(1L)
+        var seen = 0L
+        for (i in counts.indices) {
+            seen += counts[i]
+            if (seen >= rank) {
+                return minOf(highestValueOf(i), max)
+            }
+        }
+        return max
+    }
+
+    private fun indexOf(value: Long): Int {
+        if (value < LINEAR_BUCKETS) {
+            return value.toInt()
+        }
+        val shift = (63 - java.lang.Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1)
+        return LINEAR_BUCKETS + (shift - 1) * HALF_BUCKETS +
+                ((value ushr shift).toInt() - HALF_BUCKETS)
+    }
+
+    private fun highestValueOf(index: Int): Long {
+        if (index < LINEAR_BUCKETS) {
+            return index.toLong()
+        }
+        val offset = index - LINEAR_BUCKETS
+        val shift = offset / HALF_BUCKETS + 1
+        val subBucket = (offset % HALF_BUCKETS + HALF_BUCKETS).toLong()
+        return ((subBucket + 1) shl shift) - 1
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 5
+        private const val LINEAR_BUCKETS = 1 shl SUB_BUCKET_BITS
+        private const val HALF_BUCKETS = LINEAR_BUCKETS / 2
+    }
+}
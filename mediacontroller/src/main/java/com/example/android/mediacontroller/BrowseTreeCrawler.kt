@@ -0,0 +1,438 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.os.Bundle
+import android.support.v4.media.MediaBrowserCompat
+import android.support.v4.media.MediaDescriptionCompat
+import android.support.v4.media.MediaBrowserCompat.MediaItem
+import android.support.v4.media.MediaBrowserCompat.SubscriptionCallback
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.ArrayDeque
+import java.util.concurrent.TimeoutException
+import kotlin.coroutines.resume
+
+/**
+ * Walks the browse tree of a [MediaBrowserCompat] depth first while keeping up to [parallelism]
+ * subscriptions in flight.
+ *
+ * The children of the browsable nodes closest to the top of the DFS stack are prefetched, but
+ * nodes are always handed to the visitor in the same preorder that a sequential walk produces.
+ * A crawl with a parallelism of 1 is a plain sequential DFS.
+ *
+ * Every browsable media ID is only expanded once. A browsable child that repeats the ID of one
+ * of its ancestors is a [Finding.CYCLE], and one that repeats any other ID seen earlier in the
+ * crawl is a [Finding.DUPLICATE]. Both are still handed to the visitor, with [Node.finding] set,
+ * but their children are never loaded. IDs are tracked as fingerprints in a [FingerprintSet].
+ *
+ * With a [pageSize], children are requested a page at a time through
+ * [MediaBrowserCompat.EXTRA_PAGE] and [MediaBrowserCompat.EXTRA_PAGE_SIZE], so that no single
+ * Binder transaction has to carry a whole large folder. Apps that ignore the paging options are
+ * detected and loaded in one go.
+ *
+ * Must be used from a single thread. The browser delivers its callbacks on the main thread, and
+ * they are dispatched back to the thread the crawl is running on.
+ */
+class BrowseTreeCrawler(
+        private val browser: MediaBrowserCompat,
+        private val parallelism: Int = DEFAULT_PARALLELISM,
+        private val loadTimeoutMs: Long = DEFAULT_LOAD_TIMEOUT_MS,
+        private val pageSize: Int = NO_PAGING
+) {
+    private val TAG = "BrowseTreeCrawler"
+
+    private val subscriptionPermits = Semaphore(parallelism.coerceAtLeast(1))
+
+    /**
+     * Loads that are currently running, keyed by parent media ID. MediaBrowserCompat only keeps
+     * one callback per (parentId, options) pair, so concurrent loads of the same ID must share a
+     * single subscription.
+     */
+    private val inFlight = HashMap<String, Deferred<List<MediaItem>>>()
+
+    /**
+     * Number of stack entries, counted from the top, whose children may be prefetched.
+     */
+    private val prefetchWindow = parallelism.coerceAtLeast(1) * PREFETCH_FACTOR
+
+    private val stack = ArrayDeque<Node>()
+
+    /**
+     * The node that was last popped off the stack, until its children have been pushed.
+     */
+    private var current: Node? = null
+
+    /**
+     * Browsable media IDs that have been pushed onto the stack.
+     */
+    private val expandedIds = FingerprintSet()
+
+    /**
+     * Fingerprints of the media IDs on the path to the node being processed, indexed by depth.
+     * Index 0 is the root.
+     */
+    private var path = LongArray(INITIAL_PATH_DEPTH)
+
+    private var stopped = false
+
+    /**
+     * Number of nodes handed to the visitor so far.
+     */
+    var visitedCount = 0
+        private set
+
+    var cycleCount = 0
+        private set
+
+    /**
+     * Latency, child count and payload size of every load made by this crawler.
+     */
+    val loadStats = BrowseLoadStats()
+
+    var duplicateCount = 0
+        private set
+
+    /**
+     * Why a browsable node was not expanded.
+     */
+    enum class Finding {
+        /**
+         * The node has the same media ID as one of its ancestors.
+         */
+        CYCLE,
+
+        /**
+         * The node has the same media ID as a browsable node elsewhere in the tree, whose
+         * subtree was already crawled.
+         */
+        DUPLICATE
+    }
+
+    /**
+     * A media item along with its depth in the tree. Root level items have a depth of 1.
+     */
+    class Node(val item: MediaItem, val depth: Int, val parentId: String) {
+        internal var children: Deferred<List<MediaItem>>? = null
+
+        /**
+         * True once the node has been handed to the visitor. A visited node only shows up in the
+         * [frontier] while its children are still pending.
+         */
+        var visited = false
+            internal set
+
+        /**
+         * Set if the node is browsable but its subtree was skipped.
+         */
+        var finding: Finding? = null
+            internal set
+
+        /**
+         * Fingerprints of the media IDs of the node's ancestors, indexed by depth with the root
+         * first. Filled in by [frontier], so that a resumed crawl still detects cycles through
+         * any ancestor, not only the parent.
+         */
+        var ancestors: LongArray? = null
+            internal set
+
+        /**
+         * Creates a node that was already visited by an earlier crawl, but whose children were
+         * never loaded.
+         */
+        constructor(mediaId: String, depth: Int, parentId: String) : this(
+                MediaItem(MediaDescriptionCompat.Builder().setMediaId(mediaId).build(),
+                        MediaItem.FLAG_BROWSABLE), depth, parentId) {
+            visited = true
+        }
+
+        val mediaId: String
+            get() = item.mediaId ?: ""
+
+        val isExpandable: Boolean
+            get() = item.isBrowsable && mediaId != "" && finding == null
+    }
+
+    /**
+     * Loads the children of [parentId], waiting for a free subscription slot for each page. Every
+     * page is recorded in [loadStats] under [depth], the depth of [parentId] itself.
+     */
+    suspend fun loadChildren(parentId: String, depth: Int = 0): List<MediaItem> {
+        if (pageSize <= 0) {
+            return loadPage(parentId, depth, null)
+        }
+
+        val children = ArrayList<MediaItem>()
+        var page = 0
+        while (true) {
+            val items = loadPage(parentId, depth, Bundle().apply {
+                putInt(MediaBrowserCompat.EXTRA_PAGE, page)
+                putInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, pageSize)
+            })
+            // An app that ignores the paging options sends the same, full list for every page.
+            if (page > 0 && items.isNotEmpty() && items[0].mediaId == children[0].mediaId) {
+                break
+            }
+            children.addAll(items)
+            if (items.size != pageSize) {
+                break
+            }
+            ++page
+        }
+        return children
+    }
+
+    private suspend fun loadPage(parentId: String,
+                                 depth: Int,
+                                 options: Bundle?): List<MediaItem> =
+            subscriptionPermits.withPermit {
+                val start = System.nanoTime()
+                val children = withTimeoutOrNull(loadTimeoutMs) { subscribe(parentId, options) }
+                        ?: throw TimeoutException("Timed out loading children of $parentId")
+                loadStats.record(parentId, depth, System.nanoTime() - start, children.size,
+                        BrowseLoadStats.estimateParceledSize(children))
+                children
+            }
+
+    /**
+     * Visits [items], the children of [parentId], and all of their descendants in DFS preorder.
+     *
+     * If the crawl fails or is cancelled, the nodes that were not finished stay available
+     * through [frontier].
+     */
+    suspend fun crawl(parentId: String,
+                      items: List<MediaItem>,
+                      visitor: suspend (Node) -> Unit) =
+            crawl(items.map { Node(it, 1, parentId) }, visitor)
+
+    /**
+     * Visits [nodes] and all of their descendants in DFS preorder. This is how a crawl is
+     * resumed from a saved [frontier]; nodes that were already visited only have their children
+     * loaded.
+     */
+    suspend fun crawl(nodes: List<Node>, visitor: suspend (Node) -> Unit) = coroutineScope {
+        for (i in nodes.indices.reversed()) {
+            val node = nodes[i]
+            if (!node.visited) {
+                restorePath(node)
+                classify(node)
+            }
+            stack.push(node)
+        }
+
+        while (stack.isNotEmpty() && !stopped) {
+            prefetch(this, stack)
+            val node = stack.pop()
+            current = node
+            if (!node.visited) {
+                node.visited = true
+                ++visitedCount
+                visitor(node)
+            }
+            if (stopped) {
+                break
+            }
+
+            val children = node.children?.await()
+            node.children = null
+            if (children != null) {
+                restorePath(node)
+                setPath(node.depth, node.mediaId)
+                for (i in children.indices.reversed()) {
+                    val child = Node(children[i], node.depth + 1, node.mediaId)
+                    classify(child)
+                    stack.push(child)
+                }
+            }
+            current = null
+        }
+
+        if (stopped) {
+            for (deferred in inFlight.values.toList()) {
+                deferred.cancel()
+            }
+        }
+    }
+
+    /**
+     * Stops a running crawl once the visitor returns, cancelling any loads still in flight.
+     * The unfinished nodes stay available through [frontier].
+     */
+    fun stop() {
+        stopped = true
+    }
+
+    /**
+     * Treats [mediaIds] as already expanded, so that a resumed crawl doesn't expand them again.
+     */
+    fun markExpanded(mediaIds: Iterable<String>) {
+        for (mediaId in mediaIds) {
+            expandedIds.add(FingerprintSet.fingerprint(mediaId))
+        }
+    }
+
+    /**
+     * Returns the nodes that have not been finished yet, in the order they would be visited.
+     * The first node may already have been visited, in which case only its children are
+     * pending. Every node has its [Node.ancestors] set.
+     */
+    fun frontier(): List<Node> {
+        val frontier = ArrayList<Node>(stack.size + 1)
+        current?.let {
+            if (it.isExpandable) {
+                frontier.add(it)
+            }
+        }
+        frontier.addAll(stack)
+        // Every pending node is a child of a node on the current path, so its ancestors are
+        // the start of that path.
+        for (node in frontier) {
+            if (node.ancestors == null) {
+                node.ancestors = path.copyOf(node.depth)
+            }
+        }
+        return frontier
+    }
+
+    /**
+     * Sets [Node.finding] if [node] is browsable and its media ID was already expanded, either
+     * by one of its ancestors or elsewhere in the tree.
+     */
+    private fun classify(node: Node) {
+        if (!node.item.isBrowsable || node.mediaId == "") {
+            return
+        }
+        val fingerprint = FingerprintSet.fingerprint(node.mediaId)
+        for (depth in 0 until node.depth) {
+            if (path[depth] == fingerprint) {
+                node.finding = Finding.CYCLE
+                ++cycleCount
+                Log.w(TAG, "${node.mediaId} is its own ancestor, under ${node.parentId}")
+                return
+            }
+        }
+        if (!expandedIds.add(fingerprint)) {
+            node.finding = Finding.DUPLICATE
+            ++duplicateCount
+        }
+    }
+
+    /**
+     * Sets the path up to the parent of [node]. Only the parent is known for a node that has
+     * no [Node.ancestors]; the rest of the path is still the one that led to it.
+     */
+    private fun restorePath(node: Node) {
+        val ancestors = node.ancestors
+        if (ancestors == null) {
+            setPath(node.depth - 1, node.parentId)
+            return
+        }
+        if (ancestors.size > path.size) {
+            path = path.copyOf(ancestors.size * 2)
+        }
+        ancestors.copyInto(path)
+    }
+
+    private fun setPath(depth: Int, mediaId: String) {
+        if (depth >= path.size) {
+            path = path.copyOf(depth * 2)
+        }
+        path[depth] = FingerprintSet.fingerprint(mediaId)
+    }
+
+    /**
+     * Starts loading the children of expandable nodes near the top of the stack.
+     */
+    private fun prefetch(scope: CoroutineScope, stack: ArrayDeque<Node>) {
+        var scanned = 0
+        for (node in stack) {
+            if (scanned++ >= prefetchWindow) {
+                break
+            }
+            if (node.children == null && node.isExpandable) {
+                node.children = loadChildrenAsync(scope, node.mediaId, node.depth)
+            }
+        }
+    }
+
+    private fun loadChildrenAsync(scope: CoroutineScope, parentId: String, depth: Int):
+            Deferred<List<MediaItem>> {
+        inFlight[parentId]?.let { return it }
+
+        val deferred = scope.async(start = CoroutineStart.LAZY) {
+            try {
+                loadChildren(parentId, depth)
+            } finally {
+                inFlight.remove(parentId)
+            }
+        }
+        inFlight[parentId] = deferred
+        deferred.start()
+        return deferred
+    }
+
+    private suspend fun subscribe(parentId: String, options: Bundle?): List<MediaItem> =
+            suspendCancellableCoroutine { continuation ->
+                val callback = object : SubscriptionCallback() {
+                    override fun onChildrenLoaded(parentId: String, children: List<MediaItem>) {
+                        browser.unsubscribe(parentId, this)
+                        if (continuation.isActive) {
+                            continuation.resume(children)
+                        }
+                    }
+
+                    override fun onChildrenLoaded(parentId: String,
+                                                  children: List<MediaItem>,
+                                                  options: Bundle) {
+                        onChildrenLoaded(parentId, children)
+                    }
+
+                    override fun onError(parentId: String) {
+                        Log.w(TAG, "Failed to load children of $parentId")
+                        browser.unsubscribe(parentId, this)
+                        if (continuation.isActive) {
+                            continuation.resume(emptyList())
+                        }
+                    }
+
+                    override fun onError(parentId: String, options: Bundle) {
+                        onError(parentId)
+                    }
+                }
+                if (options == null) {
+                    browser.subscribe(parentId, callback)
+                } else {
+                    browser.subscribe(parentId, options, callback)
+                }
+                continuation.invokeOnCancellation { browser.unsubscribe(parentId, callback) }
+            }
+
+    companion object {
+        const val DEFAULT_PARALLELISM = 4
+        const val DEFAULT_LOAD_TIMEOUT_MS = 30_000L
+        const val NO_PAGING = 0
+        private const val PREFETCH_FACTOR = 4
+        private const val INITIAL_PATH_DEPTH = 16
+    }
+}
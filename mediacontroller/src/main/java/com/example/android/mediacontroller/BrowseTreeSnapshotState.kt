@@ -0,0 +1,198 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.content.Context
+import android.net.Uri
+import android.util.AtomicFile
+import android.util.Log
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+
+/**
+ * Progress of a browse tree snapshot, kept in app-private storage so that an interrupted
+ * snapshot can be resumed even after the process has died.
+ *
+ * The state is only ever written right after the snapshot output has been flushed, so the
+ * recorded output offset always marks the end of complete lines. Likewise, the expanded media
+ * IDs are appended before the state is written, and the state records how far they went, so
+ * IDs appended by a save that never finished are dropped.
+ *
+ * @param key Identifies the media app, so that each app has at most one resumable snapshot.
+ */
+class BrowseTreeSnapshotState(context: Context, key: String) {
+    private val TAG = "BrowseTreeSnapshotState"
+
+    private val directory = File(context.filesDir, DIRECTORY)
+    private val fileName = key.replace(Regex("[^A-Za-z0-9._-]"), "_")
+    private val stateFile = AtomicFile(File(directory, "$fileName.state"))
+    private val expandedFile = File(directory, "$fileName.expanded")
+
+    /**
+     * A node that had not been finished when the state was saved.
+     *
+     * @param expanded True if the node itself was already written and only its children are
+     * still pending.
+     * @param ancestors Fingerprints of the media IDs of the node's ancestors, root first, or
+     * empty if they weren't recorded.
+     */
+    class FrontierEntry(val depth: Int,
+                        val expanded: Boolean,
+                        val parentId: String,
+                        val mediaId: String,
+                        val ancestors: LongArray = LongArray(0))
+
+    /**
+     * @param expandedLength Length of the expanded media IDs file when the state was saved.
+     */
+    class Saved(val outputUri: Uri,
+                val outputOffset: Long,
+                val visitedCount: Int,
+                val expandedLength: Long,
+                val frontier: List<FrontierEntry>)
+
+    fun exists() = stateFile.baseFile.exists()
+
+    /**
+     * Returns the last saved state, or null if there is none or it can't be read.
+     */
+    fun load(): Saved? {
+        if (!exists()) {
+            return null
+        }
+        return try {
+            DataInputStream(BufferedInputStream(stateFile.openRead())).use { input ->
+                if (input.readInt() != VERSION) {
+                    return null
+                }
+                val outputUri = Uri.parse(input.readUTF())
+                val outputOffset = input.readLong()
+                val visitedCount = input.readInt()
+                val expandedLength = input.readLong()
+                val frontierSize = input.readInt()
+                val frontier = ArrayList<FrontierEntry>(frontierSize)
+                for (i in 0 until frontierSize) {
+                    val depth = input.readInt()
+                    val expanded = input.readBoolean()
+                    val parentId = input.readUTF()
+                    val mediaId = input.readUTF()
+                    val ancestors = LongArray(input.readInt())
+                    for (j in ancestors.indices) {
+                        ancestors[j] = input.readLong()
+                    }
+                    frontier.add(FrontierEntry(depth, expanded, parentId, mediaId, ancestors))
+                }
+                Saved(outputUri, outputOffset, visitedCount, expandedLength, frontier)
+            }
+        } catch (e: IOException) {
+            Log.e(TAG, "Failed to read snapshot state", e)
+            null
+        }
+    }
+
+    /**
+     * Returns the browsable media IDs that were expanded as of the [saved] state. IDs appended
+     * after it are dropped from the file, since their part of the frontier was never saved.
+     */
+    fun loadExpandedIds(saved: Saved): List<String> {
+        val ids = ArrayList<String>()
+        if (!expandedFile.exists()) {
+            return ids
+        }
+        try {
+            RandomAccessFile(expandedFile, "rw").use {
+                if (it.length() > saved.expandedLength) {
+                    it.setLength(saved.expandedLength)
+                }
+            }
+            DataInputStream(BufferedInputStream(expandedFile.inputStream())).use { input ->
+                while (true) {
+                    ids.add(input.readUTF())
+                }
+            }
+        } catch (e: EOFException) {
+            // A write cut short leaves a partial last entry, which is simply dropped.
+        } catch (e: IOException) {
+            Log.e(TAG, "Failed to read expanded media IDs", e)
+        }
+        return ids
+    }
+
+    /**
+     * Appends [newlyExpandedIds] to the expanded set and replaces the saved frontier. The new
+     * IDs only count once the state is written, so a save cut short in between leaves the
+     * previous state whole.
+     */
+    fun save(outputUri: Uri,
+             outputOffset: Long,
+             visitedCount: Int,
+             newlyExpandedIds: List<String>,
+             frontier: List<BrowseTreeCrawler.Node>) {
+        directory.mkdirs()
+        DataOutputStream(BufferedOutputStream(FileOutputStream(expandedFile, true))).use { out ->
+            for (mediaId in newlyExpandedIds) {
+                out.writeUTF(mediaId)
+            }
+        }
+
+        val stream = stateFile.startWrite()
+        try {
+            val out = DataOutputStream(BufferedOutputStream(stream))
+            out.writeInt(VERSION)
+            out.writeUTF(outputUri.toString())
+            out.writeLong(outputOffset)
+            out.writeInt(visitedCount)
+            out.writeLong(expandedFile.length())
+            out.writeInt(frontier.size)
+            for (node in frontier) {
+                out.writeInt(node.depth)
+                out.writeBoolean(node.visited)
+                out.writeUTF(node.parentId)
+                out.writeUTF(node.mediaId)
+                val ancestors = node.ancestors ?: LongArray(0)
+                out.writeInt(ancestors.size)
+                for (fingerprint in ancestors) {
+                    out.writeLong(fingerprint)
+                }
+            }
+            out.flush()
+            stateFile.finishWrite(stream)
+        } catch (e: IOException) {
+            stateFile.failWrite(stream)
+            throw e
+        }
+    }
+
+    /**
+     * Forgets any saved progress, either because the snapshot completed or a new one started.
+     */
+    fun clear() {
+        stateFile.delete()
+        expandedFile.delete()
+    }
+
+    companion object {
+        private const val DIRECTORY = "snapshots"
+        private const val VERSION = 3
+    }
+}
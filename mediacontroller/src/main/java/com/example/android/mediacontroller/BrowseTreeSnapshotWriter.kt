@@ -0,0 +1,137 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.support.v4.media.MediaBrowserCompat.MediaItem
+import java.io.BufferedWriter
+import java.io.Closeable
+import java.io.FilterOutputStream
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+
+/**
+ * Sink for the nodes of a browse tree snapshot, written in DFS preorder as they are visited.
+ * Output is buffered until [checkpoint] is called, so callers control how much work a crash
+ * can lose.
+ */
+interface BrowseTreeSnapshotWriter : Closeable {
+    fun writeHeader()
+
+    fun writeNode(item: MediaItem, depth: Int)
+
+    /**
+     * Pushes everything written so far out to the underlying stream.
+     */
+    fun checkpoint()
+
+    /**
+     * Records that the snapshot stopped before the whole tree was visited, along with the
+     * nodes that were still pending so a later run can pick up from there.
+     */
+    fun writeTrailer(visitedCount: Int, frontier: List<BrowseTreeCrawler.Node>)
+
+    /**
+     * Records how long the media app took to load each level of the tree. Only written once the
+     * whole tree has been visited.
+     */
+    fun writeLoadStats(stats: BrowseLoadStats)
+}
+
+/**
+ * Writes the tab-indented text format, one line per media item.
+ */
+class TextSnapshotWriter(outputStream: OutputStream) : BrowseTreeSnapshotWriter {
+    private val writer = BufferedWriter(OutputStreamWriter(outputStream, Charsets.UTF_8),
+            BUFFER_SIZE)
+
+    override fun writeHeader() {
+        writer.write("Root:")
+        writer.newLine()
+    }
+
+    override fun writeNode(item: MediaItem, depth: Int) {
+        val descriptionCompat = item.description
+        // Tab the media item to the respective depth
+        for (i in 0 until depth) {
+            writer.write('\t'.code)
+        }
+        writer.write("Title:")
+        writer.write(descriptionCompat.title?.toString() ?: NOT_AVAILABLE)
+        writer.write(",Subtitle:")
+        writer.write(descriptionCompat.subtitle?.toString() ?: NOT_AVAILABLE)
+        writer.write(",MediaId:")
+        writer.write(descriptionCompat.mediaId ?: NOT_AVAILABLE)
+        writer.write(",URI:")
+        writer.write(descriptionCompat.mediaUri?.toString() ?: NOT_AVAILABLE)
+        writer.write(",Description:")
+        writer.write(descriptionCompat.description?.toString() ?: NOT_AVAILABLE)
+        writer.newLine()
+    }
+
+    override fun checkpoint() {
+        writer.flush()
+    }
+
+    override fun writeTrailer(visitedCount: Int, frontier: List<BrowseTreeCrawler.Node>) {
+        writer.write("${TRAILER_PREFIX}Visited:$visitedCount,Pending:${frontier.size}")
+        writer.newLine()
+        for (node in frontier) {
+            writer.write("${FRONTIER_PREFIX}Depth:${node.depth},Expanded:${node.visited}," +
+                    "ParentId:${node.parentId},MediaId:${node.mediaId}")
+            writer.newLine()
+        }
+        writer.flush()
+    }
+
+    override fun writeLoadStats(stats: BrowseLoadStats) {
+        for (line in stats.summary()) {
+            writer.write(LOAD_STATS_PREFIX)
+            writer.write(line)
+            writer.newLine()
+        }
+    }
+
+    override fun close() {
+        writer.close()
+    }
+
+    companion object {
+        const val NOT_AVAILABLE = "NAN"
+        const val TRAILER_PREFIX = "#Interrupted:"
+        const val FRONTIER_PREFIX = "#Frontier:"
+        const val LOAD_STATS_PREFIX = "#LoadStats:"
+
+        private const val BUFFER_SIZE = 64 * 1024
+    }
+}
+
+/**
+ * Keeps track of how many bytes have been written to a stream, starting from [count].
+ */
+class CountingOutputStream(out: OutputStream, count: Long = 0L) : FilterOutputStream(out) {
+    var count = count
+        private set
+
+    override fun write(b: Int) {
+        out.write(b)
+        ++count
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        out.write(b, off, len)
+        count += len
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+/**
+ * Set of media IDs, stored as 64 bit fingerprints in an open addressing table rather than as
+ * strings. At 8 to 16 bytes per ID, a million IDs fit in 16 MB.
+ *
+ * Two different IDs with the same fingerprint are treated as equal. With 64 bit fingerprints
+ * that is vanishingly unlikely for any tree a media app can serve.
+ *
+ * An [indexed] set also numbers its fingerprints in the order they were added, so callers can
+ * keep data about each ID in plain arrays next to the set. That costs another 4 to 8 bytes per
+ * ID.
+ */
+internal class FingerprintSet(initialCapacity: Int = 1024, indexed: Boolean = false) {
+    private var keys = LongArray(Integer.highestOneBit(initialCapacity.coerceAtLeast(16) * 2 - 1))
+    private var indices = if (indexed) IntArray(keys.size) else null
+
+    var size = 0
+        private set
+
+    /**
+     * Adds [fingerprint], returning false if it was already in the set.
+     */
+    fun add(fingerprint: Long): Boolean {
+        if ((size + 1) * 2 > keys.size) {
+            grow()
+        }
+        var slot = slotFor(fingerprint, keys.size)
+        while (true) {
+            val key = keys[slot]
+            if (key == fingerprint) {
+                return false
+            }
+            if (key == EMPTY) {
+                keys[slot] = fingerprint
+                indices?.set(slot, size)
+                size++
+                return true
+            }
+            slot = (slot + 1) and (keys.size - 1)
+        }
+    }
+
+    operator fun contains(fingerprint: Long) = find(fingerprint) >= 0
+
+    /**
+     * Returns the number of fingerprints that were added before [fingerprint], or -1 if it isn't
+     * in the set. Only available on an indexed set.
+     */
+    fun indexOf(fingerprint: Long): Int {
+        val indices = checkNotNull(indices) { "Not an indexed set" }
+        val slot = find(fingerprint)
+        return if (slot < 0) -1 else indices[slot]
+    }
+
+    private fun find(fingerprint: Long): Int {
+        var slot = slotFor(fingerprint, keys.size)
+        while (true) {
+            val key = keys[slot]
+            if (key == fingerprint) {
+                return slot
+            }
+            if (key == EMPTY) {
+                return -1
+            }
+            slot = (slot + 1) and (keys.size - 1)
+        }
+    }
+
+    private fun grow() {
+        val oldKeys = keys
+        val oldIndices = indices
+        keys = LongArray(oldKeys.size * 2)
+        indices = oldIndices?.let { IntArray(keys.size) }
+        for (i in oldKeys.indices) {
+            val key = oldKeys[i]
+            if (key == EMPTY) {
+                continue
+            }
+            var slot = slotFor(key, keys.size)
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) and (keys.size - 1)
+            }
+            keys[slot] = key
+            if (oldIndices != null) {
+                indices?.set(slot, oldIndices[i])
+            }
+        }
+    }
+
+    private fun slotFor(fingerprint: Long, capacity: Int) =
+            (fingerprint xor (fingerprint ushr 32)).toInt() and (capacity - 1)
+
+    companion object {
+        private const val EMPTY = 0L
+
+        /**
+         * Returns the fingerprint of [mediaId]. Never returns 0, which marks empty slots.
+         */
+        fun fingerprint(mediaId: String): Long {
+            val fingerprint = BinarySnapshotFormat.fingerprint(mediaId)
+            return if (fingerprint == EMPTY) 1L else fingerprint
+        }
+    }
+}
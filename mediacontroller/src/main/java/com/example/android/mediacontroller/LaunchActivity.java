@@ -21,9 +21,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ServiceInfo;
-import android.content.res.Resources;
 import android.media.session.MediaSessionManager;
-import android.media.session.MediaSessionManager.OnActiveSessionsChangedListener;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
@@ -33,8 +31,7 @@ import android.widget.Toast;
 import com.example.android.mediacontroller.databinding.ActivityLaunchBinding;
 import com.example.android.mediacontroller.tasks.FindMediaAppsTask;
 import com.example.android.mediacontroller.tasks.FindMediaBrowserAppsTask;
-import com.example.android.mediacontroller.tasks.FindMediaSessionAppsTask;
-import com.example.android.mediacontroller.tasks.MediaAppControllerUtils;
+import com.example.android.mediacontroller.tasks.MediaSessionTracker;
 import com.example.android.mediacontroller.testing.MediaAppTestingActivity;
 import com.google.android.material.snackbar.Snackbar;
 
@@ -59,6 +56,7 @@ public class LaunchActivity extends AppCompatActivity {
 
     private MediaAppListAdapter mediaAppsAdapter;
     private MediaAppListAdapter.Section mMediaBrowserApps;
+    private FindMediaAppsTask mFindBrowserAppsTask;
 
     private final FindMediaAppsTask.AppListUpdatedCallback mBrowserAppsUpdated =
             new FindMediaAppsTask.AppListUpdatedCallback() {
@@ -177,7 +175,8 @@ public class LaunchActivity extends AppCompatActivity {
         }
         // Update the list of media browser apps in onStart so if a new app is installed it will
         // appear on the list when the user comes back to it.
-        new FindMediaBrowserAppsTask(this, mBrowserAppsUpdated).execute();
+        mFindBrowserAppsTask = new FindMediaBrowserAppsTask(this, mBrowserAppsUpdated);
+        mFindBrowserAppsTask.execute();
     }
 
     @Override
@@ -185,6 +184,10 @@ public class LaunchActivity extends AppCompatActivity {
         if (mMediaSessionListener != null) {
             mMediaSessionListener.onStop();
         }
+        if (mFindBrowserAppsTask != null) {
+            mFindBrowserAppsTask.cancel();
+            mFindBrowserAppsTask = null;
+        }
         super.onStop();
     }
 
@@ -205,8 +208,7 @@ public class LaunchActivity extends AppCompatActivity {
         PackageManager pm = getPackageManager();
         ServiceInfo serviceInfo = MediaAppDetails.findServiceInfo(packageName, pm);
         if (serviceInfo != null) {
-            Resources res = getResources();
-            MediaAppDetails app = new MediaAppDetails(serviceInfo, pm, res);
+            MediaAppDetails app = new MediaAppDetails(serviceInfo, pm);
 
             Intent intent =
                     MediaAppControllerActivity.buildIntent(LaunchActivity.this, app);
@@ -245,11 +247,8 @@ public class LaunchActivity extends AppCompatActivity {
                     }
                 };
 
-        private final OnActiveSessionsChangedListener mSessionsChangedListener =
-                list -> mSessionAppsUpdated.onAppListUpdated(
-                        MediaAppControllerUtils.getMediaAppsFromControllers(
-                                list, getPackageManager(), getResources()));
         private MediaSessionManager mMediaSessionManager;
+        private MediaSessionTracker mSessionTracker;
 
         void onCreate(MediaAppListAdapter mediaAppListAdapter) {
             mMediaSessionApps = mediaAppListAdapter.addSection(R.string.media_app_header_session);
@@ -270,19 +269,18 @@ public class LaunchActivity extends AppCompatActivity {
             if (mMediaSessionManager == null) {
                 return;
             }
-            ComponentName listenerComponent =
-                    new ComponentName(context, NotificationListener.class);
-            mMediaSessionManager.addOnActiveSessionsChangedListener(
-                    mSessionsChangedListener, listenerComponent);
-            new FindMediaSessionAppsTask(mMediaSessionManager, listenerComponent,
-                    getPackageManager(), getResources(), mSessionAppsUpdated).execute();
+            if (mSessionTracker == null) {
+                mSessionTracker = new MediaSessionTracker(mMediaSessionManager,
+                        new ComponentName(context, NotificationListener.class),
+                        context, mSessionAppsUpdated);
+            }
+            mSessionTracker.start();
         }
 
         void onStop() {
-            if (mMediaSessionManager == null) {
-                return;
+            if (mSessionTracker != null) {
+                mSessionTracker.stop();
             }
-            mMediaSessionManager.removeOnActiveSessionsChangedListener(mSessionsChangedListener);
         }
     }
 }
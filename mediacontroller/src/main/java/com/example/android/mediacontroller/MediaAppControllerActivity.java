@@ -33,6 +33,7 @@ import android.os.Bundle;
 import android.os.RemoteException;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaBrowserCompat.MediaItem;
+import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.RatingCompat;
 import android.support.v4.media.session.MediaControllerCompat;
@@ -40,7 +41,9 @@ import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -58,31 +61,31 @@ import androidx.annotation.IdRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.res.ResourcesCompat;
+import androidx.core.util.ObjectsCompat;
 import androidx.core.graphics.drawable.DrawableCompat;
 import androidx.core.util.Supplier;
 import androidx.media.MediaBrowserServiceCompat;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewpager.widget.PagerAdapter;
 
 import com.example.android.mediacontroller.databinding.ActivityMediaAppControllerBinding;
 import com.google.android.material.tabs.TabLayout;
 
-import java.io.FileNotFoundException;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -114,6 +117,7 @@ public class MediaAppControllerActivity extends AppCompatActivity {
     private static final String APP_DETAILS_EXTRA =
             "com.example.android.mediacontroller.APP_DETAILS_EXTRA";
     private static final String DEFAULT_BROWSE_TREE_FILE_NAME = "_BrowseTreeContent.txt";
+    private static final String DEFAULT_BINARY_BROWSE_TREE_FILE_NAME = "_BrowseTreeContent.mbts";
 
     // Index values for spinner.
     private static final int SEARCH_INDEX = 0;
@@ -122,6 +126,47 @@ public class MediaAppControllerActivity extends AppCompatActivity {
 
     // Used for user storage permission request
     private static final int CREATE_DOCUMENT_REQUEST_FOR_SNAPSHOT = 1;
+    private static final int CREATE_DOCUMENT_REQUEST_FOR_BINARY_SNAPSHOT = 2;
+    private static final int OPEN_DOCUMENT_REQUEST_FOR_OLD_SNAPSHOT = 3;
+    private static final int OPEN_DOCUMENT_REQUEST_FOR_NEW_SNAPSHOT = 4;
+
+    // Number of children requested at a time while browsing
+    private static final int BROWSE_PAGE_SIZE = 100;
+    // How close to the end of the loaded children the list can get before the next page is
+    // requested
+    private static final int BROWSE_PREFETCH_DISTANCE = 20;
+    // Total number of children kept for browse nodes that were visited before
+    private static final int BROWSE_CACHE_MAX_CHILDREN = 5000;
+
+    // Parts of the controller state that changed since the controls were last drawn
+    private static final int CHANGED_PLAYBACK_STATE = 1;
+    private static final int CHANGED_METADATA = 1 << 1;
+    private static final int CHANGED_MODES = 1 << 2;
+
+    // Browse items are matched by media ID, and redrawn only if what is shown of them changed
+    private static final DiffUtil.ItemCallback<MediaItem> BROWSE_ITEM_DIFF =
+            new DiffUtil.ItemCallback<MediaItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull MediaItem oldItem,
+                                               @NonNull MediaItem newItem) {
+                    return TextUtils.equals(oldItem.getMediaId(), newItem.getMediaId());
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull MediaItem oldItem,
+                                                  @NonNull MediaItem newItem) {
+                    MediaDescriptionCompat oldDescription = oldItem.getDescription();
+                    MediaDescriptionCompat newDescription = newItem.getDescription();
+                    return oldItem.getFlags() == newItem.getFlags()
+                            && TextUtils.equals(oldDescription.getTitle(),
+                            newDescription.getTitle())
+                            && TextUtils.equals(oldDescription.getSubtitle(),
+                            newDescription.getSubtitle())
+                            && ObjectsCompat.equals(oldDescription.getIconUri(),
+                            newDescription.getIconUri())
+                            && oldDescription.getIconBitmap() == newDescription.getIconBitmap();
+                }
+            };
 
     private MediaAppDetails mMediaAppDetails;
     private MediaControllerCompat mController;
@@ -129,6 +174,18 @@ public class MediaAppControllerActivity extends AppCompatActivity {
     private MediaBrowserCompat mBrowserExtraSuggested;
     private AudioFocusHelper mAudioFocusHelper;
     private RatingUiHelper mRatingUiHelper;
+    private AlbumArtRenderer mAlbumArtRenderer;
+
+    // Controller state received since the last frame, drawn once per frame
+    private int mPendingChanges;
+    private PlaybackStateCompat mPlaybackState;
+    private MediaMetadataCompat mMetadata;
+    // What the controls currently show, so that unchanged parts aren't drawn again
+    private long mShownActions = -1;
+    private List<PlaybackStateCompat.CustomAction> mShownCustomActions;
+    private MediaInfoFormatter mMediaInfoFormatter;
+    private final Choreographer.FrameCallback mControllerFrameCallback =
+            frameTimeNanos -> showControllerChanges();
     private final CustomControlsAdapter mCustomControlsAdapter = new CustomControlsAdapter();
     private BrowseMediaItemsAdapter mBrowseMediaItemsAdapter = new BrowseMediaItemsAdapter(
         new Supplier<MediaBrowserCompat>() {
@@ -159,6 +216,8 @@ public class MediaAppControllerActivity extends AppCompatActivity {
     private ViewGroup mRatingViewGroup;
 
     private MediaBrowseTreeSnapshot mMediaBrowseTreeSnapshot;
+    // The earlier of the two snapshots being compared, while the later one is chosen
+    private Uri mOldSnapshotUri;
 
     private final SparseArray<ImageButton> mActionButtonMap = new SparseArray<>();
     private ActivityMediaAppControllerBinding binding;
@@ -182,6 +241,9 @@ public class MediaAppControllerActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         binding = ActivityMediaAppControllerBinding.inflate(LayoutInflater.from(this));
         setContentView(binding.getRoot());
+        mAlbumArtRenderer = new AlbumArtRenderer(binding.controlsPage.mediaArt,
+                R.drawable.ic_album_black_24dp);
+        mMediaInfoFormatter = new MediaInfoFormatter(getResources());
         final Toolbar toolbar = binding.toolbar;
         setSupportActionBar(toolbar);
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
@@ -202,7 +264,7 @@ public class MediaAppControllerActivity extends AppCompatActivity {
 
         if (mMediaAppDetails != null) {
             setupMedia();
-            setupToolbar(mMediaAppDetails.appName, mMediaAppDetails.icon);
+            setupToolbar(mMediaAppDetails.appName, mMediaAppDetails.getIcon(this));
         } else {
             // App details weren't passed in for some reason.
             Toast.makeText(
@@ -257,20 +319,22 @@ public class MediaAppControllerActivity extends AppCompatActivity {
         browseTreeList.setHasFixedSize(true);
         browseTreeList.setAdapter(mBrowseMediaItemsAdapter);
         mBrowseMediaItemsAdapter.init(findViewById(R.id.media_browse_tree_top),
-                findViewById(R.id.media_browse_tree_up), findViewById(R.id.media_browse_tree_save));
+                findViewById(R.id.media_browse_tree_up), findViewById(R.id.media_browse_tree_save),
+                findViewById(R.id.media_browse_tree_compare));
 
         final RecyclerView browseTreeListExtraSuggested = findViewById(R.id.media_items_list_extra_suggested);
         browseTreeListExtraSuggested.setLayoutManager(new LinearLayoutManager(this));
         browseTreeListExtraSuggested.setHasFixedSize(true);
         browseTreeListExtraSuggested.setAdapter(mBrowseMediaItemsExtraSuggestedAdapter);
         mBrowseMediaItemsExtraSuggestedAdapter.init(findViewById(R.id.media_browse_tree_top_extra_suggested),
-                findViewById(R.id.media_browse_tree_up_extra_suggested), findViewById(R.id.media_browse_tree_save));
+                findViewById(R.id.media_browse_tree_up_extra_suggested), findViewById(R.id.media_browse_tree_save),
+                findViewById(R.id.media_browse_tree_compare));
 
         final RecyclerView searchItemsList = findViewById(R.id.search_items_list);
         searchItemsList.setLayoutManager(new LinearLayoutManager(this));
         searchItemsList.setHasFixedSize(true);
         searchItemsList.setAdapter(mSearchMediaItemsAdapter);
-        mSearchMediaItemsAdapter.init(null, null, null);
+        mSearchMediaItemsAdapter.init(null, null, null, null);
 
         findViewById(R.id.search_button).setOnClickListener(v -> {
             CharSequence queryText = ((TextView) findViewById(R.id.search_query)).getText();
@@ -283,25 +347,52 @@ public class MediaAppControllerActivity extends AppCompatActivity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        if (requestCode == CREATE_DOCUMENT_REQUEST_FOR_SNAPSHOT) {
+        if (requestCode == CREATE_DOCUMENT_REQUEST_FOR_SNAPSHOT
+                || requestCode == CREATE_DOCUMENT_REQUEST_FOR_BINARY_SNAPSHOT) {
             if (resultCode == RESULT_OK && mMediaBrowseTreeSnapshot != null) {
                 Uri uri = data.getData();
-                OutputStream outputStream = null;
                 try {
-                    outputStream = getContentResolver().openOutputStream(uri);
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
+                    // Keep access to the document so an interrupted snapshot can be resumed
+                    // after a restart.
+                    getContentResolver().takePersistableUriPermission(uri,
+                            Intent.FLAG_GRANT_READ_URI_PERMISSION
+                                    | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+                } catch (SecurityException e) {
+                    Log.w(TAG, "Snapshot output can't be resumed after a restart", e);
                 }
-                mMediaBrowseTreeSnapshot.takeBrowserSnapshot(outputStream);
+                mMediaBrowseTreeSnapshot.takeBrowserSnapshot(uri,
+                        requestCode == CREATE_DOCUMENT_REQUEST_FOR_BINARY_SNAPSHOT
+                                ? MediaBrowseTreeSnapshot.Format.BINARY
+                                : MediaBrowseTreeSnapshot.Format.TEXT);
                 Toast.makeText(this, "Output file location: " + uri.getPath(), Toast.LENGTH_SHORT).show();
             } else {
                 Toast.makeText(this, "File could not be saved.", Toast.LENGTH_SHORT).show();
             }
 
 
+        } else if (requestCode == OPEN_DOCUMENT_REQUEST_FOR_OLD_SNAPSHOT) {
+            if (resultCode == RESULT_OK) {
+                mOldSnapshotUri = data.getData();
+                Toast.makeText(this, R.string.media_browse_tree_compare_new, Toast.LENGTH_SHORT)
+                        .show();
+                chooseSnapshotToCompare(OPEN_DOCUMENT_REQUEST_FOR_NEW_SNAPSHOT);
+            }
+        } else if (requestCode == OPEN_DOCUMENT_REQUEST_FOR_NEW_SNAPSHOT) {
+            if (resultCode == RESULT_OK && mOldSnapshotUri != null
+                    && mMediaBrowseTreeSnapshot != null) {
+                mMediaBrowseTreeSnapshot.compareSnapshots(mOldSnapshotUri, data.getData());
+            }
+            mOldSnapshotUri = null;
         }
     }
 
+    private void chooseSnapshotToCompare(int requestCode) {
+        Intent openFileIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        openFileIntent.addCategory(Intent.CATEGORY_OPENABLE);
+        openFileIntent.setType("*/*");
+        startActivityForResult(openFileIntent, requestCode);
+    }
+
     @Override
     protected void onDestroy() {
         if (mController != null) {
@@ -309,6 +400,17 @@ public class MediaAppControllerActivity extends AppCompatActivity {
             mController = null;
         }
 
+        if (mMediaBrowseTreeSnapshot != null) {
+            mMediaBrowseTreeSnapshot.cancelSnapshot();
+        }
+
+        mAlbumArtRenderer.release();
+        Choreographer.getInstance().removeFrameCallback(mControllerFrameCallback);
+
+        for (String line : mBrowseMediaItemsAdapter.getLoadStats().summary()) {
+            Log.i(TAG, "Browse load stats: " + line);
+        }
+
         if (mBrowser != null && mBrowser.isConnected()) {
             mBrowser.disconnect();
         }
@@ -476,6 +578,9 @@ public class MediaAppControllerActivity extends AppCompatActivity {
             mRatingUiHelper = ratingUiHelperFor(mController.getRatingType());
 
             // Force update on connect.
+            mShownActions = -1;
+            mShownCustomActions = null;
+            mMediaInfoFormatter.reset();
             mCallback.onPlaybackStateChanged(mController.getPlaybackState());
             mCallback.onMetadataChanged(mController.getMetadata());
 
@@ -510,38 +615,11 @@ public class MediaAppControllerActivity extends AppCompatActivity {
         }
     }
 
-    @Nullable
-    private String fetchMediaInfo() {
-        if (mController == null) {
-            Log.e(TAG, "Failed to update media info, null MediaController.");
-            return null;
-        }
-
-        PlaybackStateCompat playbackState = mController.getPlaybackState();
-        if (playbackState == null) {
-            Log.e(TAG, "Failed to update media info, null PlaybackState.");
-            return null;
-        }
-
-        Map<String, String> mediaInfos = new HashMap<>();
-        mediaInfos.put(getString(R.string.info_state_string),
-                playbackStateToName(playbackState.getState()));
-
-        MediaMetadataCompat mediaMetadata = mController.getMetadata();
+    /**
+     * Updates the title, artist, album, art and rating shown on the controls page.
+     */
+    private void showMetadata(@Nullable MediaMetadataCompat mediaMetadata) {
         if (mediaMetadata != null) {
-            addMediaInfo(
-                    mediaInfos,
-                    getString(R.string.info_title_string),
-                    mediaMetadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE));
-            addMediaInfo(
-                    mediaInfos,
-                    getString(R.string.info_artist_string),
-                    mediaMetadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST));
-            addMediaInfo(
-                    mediaInfos,
-                    getString(R.string.info_album_string),
-                    mediaMetadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM));
-
             binding.controlsPage.mediaTitle.setText(
                     mediaMetadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE));
             binding.controlsPage.mediaArtist.setText(
@@ -549,12 +627,8 @@ public class MediaAppControllerActivity extends AppCompatActivity {
             binding.controlsPage.mediaAlbum.setText(
                     mediaMetadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM));
 
-            final Bitmap art = mediaMetadata.getBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART);
-            if (art != null) {
-                binding.controlsPage.mediaArt.setImageBitmap(art);
-            } else {
-                binding.controlsPage.mediaArt.setImageResource(R.drawable.ic_album_black_24dp);
-            }
+            mAlbumArtRenderer.setArt(
+                    mediaMetadata.getBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART));
             // Prefer user rating, but fall back to global rating if available.
             RatingCompat rating =
                     mediaMetadata.getRating(MediaMetadataCompat.METADATA_KEY_USER_RATING);
@@ -564,80 +638,9 @@ public class MediaAppControllerActivity extends AppCompatActivity {
             mRatingUiHelper.setRating(rating);
         } else {
             binding.controlsPage.mediaArtist.setText(R.string.media_info_default);
-            binding.controlsPage.mediaArt.setImageResource(R.drawable.ic_album_black_24dp);
+            mAlbumArtRenderer.setArt(null);
             mRatingUiHelper.setRating(null);
         }
-
-        final long actions = playbackState.getActions();
-
-        if ((actions & PlaybackStateCompat.ACTION_PREPARE_FROM_SEARCH) != 0) {
-            addMediaInfo(mediaInfos, "ACTION_PREPARE_FROM_SEARCH", "Supported");
-        }
-        if ((actions & PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH) != 0) {
-            addMediaInfo(mediaInfos, "ACTION_PLAY_FROM_SEARCH", "Supported");
-        }
-
-        if ((actions & PlaybackStateCompat.ACTION_PREPARE_FROM_MEDIA_ID) != 0) {
-            addMediaInfo(mediaInfos, "ACTION_PREPARE_FROM_MEDIA_ID", "Supported");
-        }
-        if ((actions & PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID) != 0) {
-            addMediaInfo(mediaInfos, "ACTION_PLAY_FROM_MEDIA_ID", "Supported");
-        }
-
-        if ((actions & PlaybackStateCompat.ACTION_PREPARE_FROM_URI) != 0) {
-            addMediaInfo(mediaInfos, "ACTION_PREPARE_FROM_URI", "Supported");
-        }
-        if ((actions & PlaybackStateCompat.ACTION_PLAY_FROM_URI) != 0) {
-            addMediaInfo(mediaInfos, "ACTION_PLAY_FROM_URI", "Supported");
-        }
-
-        if ((actions & PlaybackStateCompat.ACTION_PREPARE) != 0) {
-            addMediaInfo(mediaInfos, "ACTION_PREPARE", "Supported");
-        }
-        if ((actions & PlaybackStateCompat.ACTION_PLAY) != 0) {
-            addMediaInfo(mediaInfos, "ACTION_PLAY", "Supported");
-        }
-
-        final StringBuilder stringBuilder = new StringBuilder();
-
-        final List<String> sortedKeys = new ArrayList<>(mediaInfos.keySet());
-        Collections.sort(sortedKeys, new KeyComparator());
-
-        for (final String key : sortedKeys) {
-            stringBuilder.append(key).append(" = ").append(mediaInfos.get(key)).append('\n');
-        }
-        return stringBuilder.toString();
-    }
-
-    private String playbackStateToName(final int playbackState) {
-        switch (playbackState) {
-            case PlaybackStateCompat.STATE_NONE:
-                return "STATE_NONE";
-            case PlaybackStateCompat.STATE_STOPPED:
-                return "STATE_STOPPED";
-            case PlaybackStateCompat.STATE_PAUSED:
-                return "STATE_PAUSED";
-            case PlaybackStateCompat.STATE_PLAYING:
-                return "STATE_PLAYING";
-            case PlaybackStateCompat.STATE_FAST_FORWARDING:
-                return "STATE_FAST_FORWARDING";
-            case PlaybackStateCompat.STATE_REWINDING:
-                return "STATE_REWINDING";
-            case PlaybackStateCompat.STATE_BUFFERING:
-                return "STATE_BUFFERING";
-            case PlaybackStateCompat.STATE_ERROR:
-                return "STATE_ERROR";
-            case PlaybackStateCompat.STATE_CONNECTING:
-                return "STATE_CONNECTING";
-            case PlaybackStateCompat.STATE_SKIPPING_TO_PREVIOUS:
-                return "STATE_SKIPPING_TO_PREVIOUS";
-            case PlaybackStateCompat.STATE_SKIPPING_TO_NEXT:
-                return "STATE_SKIPPING_TO_NEXT";
-            case PlaybackStateCompat.STATE_SKIPPING_TO_QUEUE_ITEM:
-                return "STATE_SKIPPING_TO_QUEUE_ITEM";
-            default:
-                return "!Unknown State!";
-        }
     }
 
     private RatingUiHelper ratingUiHelperFor(int ratingStyle) {
@@ -660,12 +663,6 @@ public class MediaAppControllerActivity extends AppCompatActivity {
         }
     }
 
-    private void addMediaInfo(Map<String, String> mediaInfos, String key, String value) {
-        if (!TextUtils.isEmpty(value)) {
-            mediaInfos.put(key, value);
-        }
-    }
-
     private void startSessionActivity(MediaControllerCompat mediaController) {
         PendingIntent intent = mediaController.getSessionActivity();
         if (intent != null) {
@@ -749,33 +746,102 @@ public class MediaAppControllerActivity extends AppCompatActivity {
         mActionViewIdMap.put(R.id.action_skip_30s_forward, PlaybackStateCompat.ACTION_SEEK_TO);
     }
 
+    /**
+     * Controller callbacks only record what changed. The controls are drawn on the next frame,
+     * so a burst of updates from the media app costs a single redraw.
+     */
     private final MediaControllerCompat.Callback mCallback = new MediaControllerCompat.Callback() {
         @Override
         public void onPlaybackStateChanged(PlaybackStateCompat playbackState) {
-            onUpdate();
-            if (playbackState != null) {
-                showActions(playbackState.getActions());
-                mCustomControlsAdapter.setActions(mController, playbackState.getCustomActions());
-            }
+            mPlaybackState = playbackState;
+            scheduleControllerUpdate(CHANGED_PLAYBACK_STATE);
         }
 
         @Override
         public void onMetadataChanged(MediaMetadataCompat metadata) {
-            onUpdate();
+            mMetadata = metadata;
+            scheduleControllerUpdate(CHANGED_METADATA);
+        }
+
+        @Override
+        public void onShuffleModeChanged(int shuffleMode) {
+            scheduleControllerUpdate(CHANGED_MODES);
+        }
+
+        @Override
+        public void onRepeatModeChanged(int repeatMode) {
+            scheduleControllerUpdate(CHANGED_MODES);
         }
 
         @Override
         public void onSessionDestroyed() {
             showToastAndFinish("MediaSession has been released");
         }
+    };
+
+    private void scheduleControllerUpdate(int changes) {
+        if (mPendingChanges == 0) {
+            Choreographer.getInstance().postFrameCallback(mControllerFrameCallback);
+        }
+        mPendingChanges |= changes;
+    }
 
-        private void onUpdate() {
-            String mediaInfoStr = fetchMediaInfo();
-            if (mediaInfoStr != null) {
-                binding.preparePlayPage.mediaInfo.setText(mediaInfoStr);
+    /**
+     * Draws the controller state received since the last frame, skipping the parts of the
+     * controls that it wouldn't change.
+     */
+    private void showControllerChanges() {
+        final int changes = mPendingChanges;
+        mPendingChanges = 0;
+        if (mController == null) {
+            Log.e(TAG, "Failed to update media info, null MediaController.");
+            return;
+        }
+
+        if ((changes & CHANGED_METADATA) != 0) {
+            showMetadata(mMetadata);
+        }
+        if (mPlaybackState != null) {
+            final long actions = mPlaybackState.getActions();
+            if (actions != mShownActions || (changes & CHANGED_MODES) != 0) {
+                showActions(actions);
+                mShownActions = actions;
+            }
+            final List<PlaybackStateCompat.CustomAction> customActions =
+                    mPlaybackState.getCustomActions();
+            if (!sameCustomActions(customActions, mShownCustomActions)) {
+                mCustomControlsAdapter.setActions(mController, customActions);
+                mShownCustomActions = customActions;
             }
         }
-    };
+
+        if (mPlaybackState == null) {
+            Log.e(TAG, "Failed to update media info, null PlaybackState.");
+        } else if (mMediaInfoFormatter.update(mPlaybackState, mMetadata)) {
+            binding.preparePlayPage.mediaInfo.setText(mMediaInfoFormatter.text());
+        }
+    }
+
+    private static boolean sameCustomActions(
+            @Nullable List<PlaybackStateCompat.CustomAction> actions,
+            @Nullable List<PlaybackStateCompat.CustomAction> otherActions) {
+        if (actions == null || otherActions == null) {
+            return actions == otherActions;
+        }
+        if (actions.size() != otherActions.size()) {
+            return false;
+        }
+        for (int i = 0; i < actions.size(); ++i) {
+            final PlaybackStateCompat.CustomAction action = actions.get(i);
+            final PlaybackStateCompat.CustomAction other = otherActions.get(i);
+            if (!TextUtils.equals(action.getAction(), other.getAction())
+                    || !TextUtils.equals(action.getName(), other.getName())
+                    || action.getIcon() != other.getIcon()) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     private void showToastAndFinish(String message) {
         Toast.makeText(this, message, Toast.LENGTH_LONG).show();
@@ -898,35 +964,6 @@ public class MediaAppControllerActivity extends AppCompatActivity {
         }
     }
 
-    private static class KeyComparator implements Comparator<String> {
-        private final Set<String> mCapKeys = new HashSet<>();
-
-        @Override
-        public int compare(String leftSide, String rightSide) {
-            final boolean leftCaps = isAllCaps(leftSide);
-            final boolean rightCaps = isAllCaps(rightSide);
-
-            if (leftCaps && rightCaps) {
-                return leftSide.compareTo(rightSide);
-            } else if (leftCaps) {
-                return 1;
-            } else if (rightCaps) {
-                return -1;
-            }
-            return leftSide.compareTo(rightSide);
-        }
-
-        private boolean isAllCaps(@NonNull final String stringToCheck) {
-            if (mCapKeys.contains(stringToCheck)) {
-                return true;
-            } else if (stringToCheck.equals(stringToCheck.toUpperCase(Locale.US))) {
-                mCapKeys.add(stringToCheck);
-                return true;
-            }
-            return false;
-        }
-    }
-
     private class CustomControlsAdapter extends
             RecyclerView.Adapter<CustomControlsAdapter.ViewHolder> {
         private List<PlaybackStateCompat.CustomAction> mActions = Collections.emptyList();
@@ -1126,6 +1163,13 @@ public class MediaAppControllerActivity extends AppCompatActivity {
      * (b) mItems == null and mNodes.size() > 0 -> Loading.
      * (c) mItems != null && mItems.size() == 0 -> Empty.
      * (d) mItems.
+     * <p>
+     * While mItems is shown, changes to it are diffed by media ID on a background thread, so a
+     * large folder is never relaid out in full. Children are requested a page at a time, and the
+     * next page only once the list has been scrolled close to the end of the loaded ones.
+     * <p>
+     * The children of visited nodes are kept in an LRU cache, so that going back to a node shows
+     * them right away while the subscription refreshes them in the background.
      */
     private class BrowseMediaItemsAdapter extends
             RecyclerView.Adapter<BrowseMediaItemsAdapter.ViewHolder> {
@@ -1133,6 +1177,62 @@ public class MediaAppControllerActivity extends AppCompatActivity {
         private final Supplier<MediaBrowserCompat> mBrowserSupplier;
         private List<MediaBrowserCompat.MediaItem> mItems;
         private final Stack<String> mNodes = new Stack<>();
+        private final BrowseLoadStats mLoadStats = new BrowseLoadStats();
+        // When the current node was subscribed to, or 0 once its children have arrived
+        private long mSubscribeTimeNanos;
+        // Children of the current node by page, merged into mItems as each page arrives
+        private final SparseArray<List<MediaItem>> mPages = new SparseArray<>();
+        private int mRequestedPages;
+        // Whether the last page was full, so there may be more children to request
+        private boolean mHasMorePages;
+        // Whether mItems was shown when the differ last received a list
+        private boolean mShowingItems;
+        // Last known children of visited nodes, by parent media ID
+        private final LruCache<String, List<MediaItem>> mChildCache =
+                new LruCache<String, List<MediaItem>>(BROWSE_CACHE_MAX_CHILDREN) {
+                    @Override
+                    protected int sizeOf(String parentId, List<MediaItem> children) {
+                        return children.size() + 1;
+                    }
+                };
+        // Cached children of the current node, shown past the pages loaded so far
+        private List<MediaItem> mCachedChildren;
+
+        // Forwards list updates while mItems is shown. The status rows are replaced wholesale.
+        private final AsyncListDiffer<MediaItem> mDiffer = new AsyncListDiffer<>(
+                new ListUpdateCallback() {
+                    private final ListUpdateCallback mAdapterCallback =
+                            new AdapterListUpdateCallback(BrowseMediaItemsAdapter.this);
+
+                    @Override
+                    public void onInserted(int position, int count) {
+                        if (mShowingItems) {
+                            mAdapterCallback.onInserted(position, count);
+                        }
+                    }
+
+                    @Override
+                    public void onRemoved(int position, int count) {
+                        if (mShowingItems) {
+                            mAdapterCallback.onRemoved(position, count);
+                        }
+                    }
+
+                    @Override
+                    public void onMoved(int fromPosition, int toPosition) {
+                        if (mShowingItems) {
+                            mAdapterCallback.onMoved(fromPosition, toPosition);
+                        }
+                    }
+
+                    @Override
+                    public void onChanged(int position, int count, @Nullable Object payload) {
+                        if (mShowingItems) {
+                            mAdapterCallback.onChanged(position, count, payload);
+                        }
+                    }
+                },
+                new AsyncDifferConfig.Builder<>(BROWSE_ITEM_DIFF).build());
 
         public BrowseMediaItemsAdapter(Supplier<MediaBrowserCompat> browserSupplier) {
             mBrowserSupplier = browserSupplier;
@@ -1143,10 +1243,106 @@ public class MediaAppControllerActivity extends AppCompatActivity {
                     @Override
                     public void onChildrenLoaded(@NonNull String parentId,
                                                  @NonNull List<MediaItem> children) {
+                        recordLoad(parentId, children);
                         updateItemsEmptyIfNull(children);
                     }
+
+                    @Override
+                    public void onChildrenLoaded(@NonNull String parentId,
+                                                 @NonNull List<MediaItem> children,
+                                                 @NonNull Bundle options) {
+                        if (mNodes.isEmpty() || !parentId.equals(mNodes.peek())) {
+                            return;
+                        }
+                        recordLoad(parentId, children);
+                        onPageLoaded(options.getInt(MediaBrowserCompat.EXTRA_PAGE), children);
+                    }
                 };
 
+        /**
+         * Merges a page of children into the list. Pages can arrive again whenever the media app
+         * notifies that the children changed.
+         */
+        void onPageLoaded(int page, List<MediaItem> children) {
+            List<MediaItem> firstPage = mPages.get(0);
+            if (page > 0 && firstPage != null && !firstPage.isEmpty() && !children.isEmpty()
+                    && TextUtils.equals(firstPage.get(0).getMediaId(),
+                    children.get(0).getMediaId())) {
+                // The app ignores paging and sends its full list for every page
+                return;
+            }
+            List<MediaItem> previous = mPages.get(page);
+            if (previous != null) {
+                // The app notified that the children changed
+                evictRemovedChildren(previous, children);
+            }
+            mPages.put(page, children);
+            if (page == mRequestedPages - 1) {
+                mHasMorePages = children.size() == BROWSE_PAGE_SIZE;
+            }
+
+            List<MediaItem> merged = new ArrayList<>();
+            for (int i = 0; i < mRequestedPages; i++) {
+                List<MediaItem> items = mPages.get(i);
+                if (items == null) {
+                    if (mCachedChildren != null && mCachedChildren.size() > merged.size()) {
+                        merged.addAll(
+                                mCachedChildren.subList(merged.size(), mCachedChildren.size()));
+                    }
+                    break;
+                }
+                merged.addAll(items);
+            }
+            mChildCache.put(mNodes.peek(), merged);
+            updateItems(merged);
+        }
+
+        /**
+         * Drops the cached children of browsable items that are no longer among the children.
+         */
+        private void evictRemovedChildren(List<MediaItem> oldChildren,
+                                          List<MediaItem> newChildren) {
+            Set<String> mediaIds = new HashSet<>();
+            for (MediaItem item : newChildren) {
+                mediaIds.add(item.getMediaId());
+            }
+            for (MediaItem item : oldChildren) {
+                if (item.isBrowsable() && !mediaIds.contains(item.getMediaId())) {
+                    mChildCache.remove(item.getMediaId());
+                }
+            }
+        }
+
+        /**
+         * Requests the next page of children if {@code position} is close to the end of the loaded
+         * ones.
+         */
+        private void loadMoreIfNeeded(int position) {
+            if (mHasMorePages
+                    && position >= mDiffer.getCurrentList().size() - BROWSE_PREFETCH_DISTANCE) {
+                mHasMorePages = false;
+                subscribePage(mRequestedPages++);
+            }
+        }
+
+        /**
+         * Records how long the first load after subscribing took. Later calls are updates pushed
+         * by the media app, which have no matching request.
+         */
+        void recordLoad(String parentId, List<MediaItem> children) {
+            if (mSubscribeTimeNanos == 0) {
+                return;
+            }
+            long latencyNanos = System.nanoTime() - mSubscribeTimeNanos;
+            mSubscribeTimeNanos = 0;
+            mLoadStats.record(parentId, treeDepth() - 1, latencyNanos, children.size(),
+                    BrowseLoadStats.estimateParceledSize(children));
+        }
+
+        BrowseLoadStats getLoadStats() {
+            return mLoadStats;
+        }
+
         @NonNull
         @Override
         public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -1185,20 +1381,24 @@ public class MediaAppControllerActivity extends AppCompatActivity {
                 return;
             }
 
-            final MediaBrowserCompat.MediaItem item = mItems.get(position);
+            final MediaBrowserCompat.MediaItem item = mDiffer.getCurrentList().get(position);
+            loadMoreIfNeeded(position);
             holder.name.setText(item.getDescription().getTitle());
             holder.name.setVisibility(View.VISIBLE);
             holder.description.setText(item.getDescription().getSubtitle());
             holder.description.setVisibility(View.VISIBLE);
             Uri iconUri = item.getDescription().getIconUri();
             Bitmap iconBitmap = item.getDescription().getIconBitmap();
+            ArtworkLoader artworkLoader = ArtworkLoader.get(holder.icon.getContext());
             if (iconBitmap != null) {
+                artworkLoader.cancel(holder.icon);
                 holder.icon.setImageBitmap(iconBitmap);
                 holder.icon.setVisibility(View.VISIBLE);
             } else if (iconUri != null) {
-                holder.icon.setImageURI(iconUri);
+                artworkLoader.load(holder.icon, iconUri);
                 holder.icon.setVisibility(View.VISIBLE);
             } else {
+                artworkLoader.cancel(holder.icon);
                 holder.icon.setVisibility(View.GONE);
             }
             holder.itemView.setOnClickListener(
@@ -1215,12 +1415,17 @@ public class MediaAppControllerActivity extends AppCompatActivity {
                     });
         }
 
+        @Override
+        public void onViewRecycled(@NonNull ViewHolder holder) {
+            ArtworkLoader.get(holder.icon.getContext()).cancel(holder.icon);
+        }
+
         @Override
         public int getItemCount() {
-            if (mNodes.size() == 0 || mItems == null || mItems.size() == 0) {
+            if (mNodes.size() == 0 || !mShowingItems) {
                 return 1;
             }
-            return mItems.size();
+            return mDiffer.getCurrentList().size();
         }
 
         void updateItemsEmptyIfNull(List<MediaBrowserCompat.MediaItem> items) {
@@ -1233,6 +1438,16 @@ public class MediaAppControllerActivity extends AppCompatActivity {
 
         void updateItems(List<MediaBrowserCompat.MediaItem> items) {
             mItems = items;
+            boolean showItems = items != null && !items.isEmpty();
+            if (mShowingItems && showItems) {
+                mDiffer.submitList(items);
+                return;
+            }
+            // Switching to or from a status row. The differ reports these synchronously, and
+            // they are dropped in favour of a single full refresh.
+            mShowingItems = false;
+            mDiffer.submitList(showItems ? items : null);
+            mShowingItems = showItems;
             notifyDataSetChanged();
         }
 
@@ -1240,7 +1455,8 @@ public class MediaAppControllerActivity extends AppCompatActivity {
          * Assigns click handlers to the buttons if provided for moving to the top of the tree or
          * for moving up one level in the tree.
          */
-        void init(View topButtonView, View upButtonView, View saveButtonView) {
+        void init(View topButtonView, View upButtonView, View saveButtonView,
+                  View compareButtonView) {
             if (topButtonView != null) {
                 topButtonView.setOnClickListener(v -> {
                     if (mNodes.size() > 1) {
@@ -1267,23 +1483,30 @@ public class MediaAppControllerActivity extends AppCompatActivity {
                     takeMediaBrowseTreeSnapshot();
                 });
             }
+            if (compareButtonView != null) {
+                compareButtonView.setOnClickListener(v -> {
+                    compareMediaBrowseTreeSnapshots();
+                });
+            }
 
         }
 
         private void takeMediaBrowseTreeSnapshot(){
-            if(mBrowser != null) {
-                if(mMediaBrowseTreeSnapshot == null) {
-                    mMediaBrowseTreeSnapshot = new MediaBrowseTreeSnapshot(
-                            MediaAppControllerActivity.this, mBrowser);
+            if(mBrowser != null && mBrowser.isConnected()) {
+                ensureMediaBrowseTreeSnapshot();
+                if (mMediaBrowseTreeSnapshot.hasResumableSnapshot()) {
+                    new AlertDialog.Builder(MediaAppControllerActivity.this)
+                            .setTitle(R.string.media_browse_tree_resume_title)
+                            .setMessage(R.string.media_browse_tree_resume_message)
+                            .setPositiveButton(R.string.media_browse_tree_resume,
+                                    (dialog, which) ->
+                                            mMediaBrowseTreeSnapshot.resumeBrowserSnapshot())
+                            .setNegativeButton(R.string.media_browse_tree_start_over,
+                                    (dialog, which) -> chooseMediaBrowseTreeSnapshotFormat())
+                            .show();
+                } else {
+                    chooseMediaBrowseTreeSnapshotFormat();
                 }
-                Intent saveTextFileIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
-                saveTextFileIntent.addCategory(Intent.CATEGORY_OPENABLE);
-                saveTextFileIntent.setType("text/plain");
-                saveTextFileIntent.putExtra(
-                        Intent.EXTRA_TITLE, DEFAULT_BROWSE_TREE_FILE_NAME);
-                MediaAppControllerActivity.this.startActivityForResult(saveTextFileIntent,
-                        CREATE_DOCUMENT_REQUEST_FOR_SNAPSHOT);
-
             }else{
                 Log.e(TAG, "Media browser is null");
                 runOnUiThread(new Runnable() {
@@ -1296,12 +1519,79 @@ public class MediaAppControllerActivity extends AppCompatActivity {
             }
         }
 
+        private void compareMediaBrowseTreeSnapshots() {
+            if (mBrowser == null) {
+                Toast.makeText(getApplicationContext(), "No media browser to compare",
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
+            ensureMediaBrowseTreeSnapshot();
+            Toast.makeText(MediaAppControllerActivity.this,
+                    R.string.media_browse_tree_compare_old, Toast.LENGTH_SHORT).show();
+            chooseSnapshotToCompare(OPEN_DOCUMENT_REQUEST_FOR_OLD_SNAPSHOT);
+        }
+
+        private void ensureMediaBrowseTreeSnapshot() {
+            if (mMediaBrowseTreeSnapshot == null) {
+                mMediaBrowseTreeSnapshot = new MediaBrowseTreeSnapshot(
+                        MediaAppControllerActivity.this, mBrowser);
+            }
+        }
+
+        private void chooseMediaBrowseTreeSnapshotFormat() {
+            new AlertDialog.Builder(MediaAppControllerActivity.this)
+                    .setTitle(R.string.media_browse_tree_format_title)
+                    .setItems(R.array.media_browse_tree_formats, (dialog, which) -> {
+                        if (which == 0) {
+                            chooseMediaBrowseTreeSnapshotFile("text/plain",
+                                    DEFAULT_BROWSE_TREE_FILE_NAME,
+                                    CREATE_DOCUMENT_REQUEST_FOR_SNAPSHOT);
+                        } else {
+                            chooseMediaBrowseTreeSnapshotFile("application/octet-stream",
+                                    DEFAULT_BINARY_BROWSE_TREE_FILE_NAME,
+                                    CREATE_DOCUMENT_REQUEST_FOR_BINARY_SNAPSHOT);
+                        }
+                    })
+                    .show();
+        }
+
+        private void chooseMediaBrowseTreeSnapshotFile(String mimeType, String fileName,
+                                                       int requestCode) {
+            Intent saveFileIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            saveFileIntent.addCategory(Intent.CATEGORY_OPENABLE);
+            saveFileIntent.setType(mimeType);
+            saveFileIntent.putExtra(Intent.EXTRA_TITLE, fileName);
+            MediaAppControllerActivity.this.startActivityForResult(saveFileIntent, requestCode);
+        }
+
         protected void subscribe() {
             if (mNodes.size() > 0) {
-                mBrowserSupplier.get().subscribe(mNodes.peek(), callback);
+                mSubscribeTimeNanos = System.nanoTime();
+                mPages.clear();
+                mRequestedPages = 0;
+                mHasMorePages = false;
+                mCachedChildren = mChildCache.get(mNodes.peek());
+                if (mCachedChildren == null) {
+                    subscribePage(mRequestedPages++);
+                    return;
+                }
+                // Show the cached children right away, and refresh every page they span
+                updateItems(mCachedChildren);
+                int pages = Math.max(1,
+                        (mCachedChildren.size() + BROWSE_PAGE_SIZE - 1) / BROWSE_PAGE_SIZE);
+                while (mRequestedPages < pages) {
+                    subscribePage(mRequestedPages++);
+                }
             }
         }
 
+        private void subscribePage(int page) {
+            Bundle options = new Bundle();
+            options.putInt(MediaBrowserCompat.EXTRA_PAGE, page);
+            options.putInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, BROWSE_PAGE_SIZE);
+            mBrowserSupplier.get().subscribe(mNodes.peek(), options, callback);
+        }
+
         protected void unsubscribe() {
             if (mNodes.size() > 0) {
                 mBrowserSupplier.get().unsubscribe(mNodes.peek(), callback);
@@ -1320,6 +1610,7 @@ public class MediaAppControllerActivity extends AppCompatActivity {
         void setRoot(String root) {
             unsubscribe();
             mNodes.clear();
+            mChildCache.evictAll();
             if (root != null) {
                 mNodes.push(root);
                 subscribe();
@@ -16,7 +16,10 @@
 package com.example.android.mediacontroller;
 
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ComponentInfo;
 import android.content.pm.FeatureInfo;
 import android.content.pm.PackageItemInfo;
 import android.content.pm.PackageManager;
@@ -33,57 +36,73 @@ import android.os.Parcelable;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.annotation.RequiresApi;
 import androidx.media.MediaBrowserServiceCompat;
 
 import java.util.List;
 
 /**
  * Stores details about a media app.
+ * <p>
+ * The icon and banner are only loaded from the app's package when first asked for, and are
+ * never parceled: a parceled MediaAppDetails only identifies the app, and loads them again in
+ * the process that receives it.
  */
 public class MediaAppDetails implements Parcelable {
+    private static final String TAG = "MediaAppDetails";
+
     public final String packageName;
     public final String appName;
-    public final Bitmap icon;
-    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
-    @Nullable
-    public Bitmap banner;
     public final MediaSessionCompat.Token sessionToken;
     public final ComponentName componentName;
     public boolean supportsAutomotive = false;
     public boolean supportsAuto = false;
 
+    // Where the icon and banner are loaded from, resolved when first needed
+    @Nullable
+    private PackageItemInfo mInfo;
+    @Nullable
+    private Bitmap mIcon;
+    @Nullable
+    private Bitmap mBanner;
+    private boolean mBannerLoaded;
+
     public MediaAppDetails(String packageName, String name, Bitmap appIcon,
             @Nullable Bitmap appBanner, MediaSessionCompat.Token token) {
         this.packageName = packageName;
         appName = name;
         sessionToken = token;
-        icon = appIcon;
-        // This TV app targets min sdk version 21, and a banner will only be present for the TV app
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            banner = appBanner;
-        }
+        mIcon = appIcon;
+        setBanner(appBanner);
         componentName = null;
     }
 
+    /**
+     * Creates the details of a media app that is connected to through its MediaBrowserService,
+     * from details that were loaded before.
+     */
+    public MediaAppDetails(ComponentName browserService, String name, Bitmap appIcon,
+            @Nullable Bitmap appBanner, boolean supportsAuto, boolean supportsAutomotive) {
+        packageName = browserService.getPackageName();
+        appName = name;
+        mIcon = appIcon;
+        setBanner(appBanner);
+        componentName = browserService;
+        sessionToken = null;
+        this.supportsAuto = supportsAuto;
+        this.supportsAutomotive = supportsAutomotive;
+    }
+
     public MediaAppDetails(String packageName, String name, Bitmap appIcon,
             @Nullable Bitmap appBanner, MediaSession.Token token) {
         this(packageName, name, appIcon, appBanner, MediaSessionCompat.Token.fromToken(token));
     }
 
-    public MediaAppDetails(PackageItemInfo info, PackageManager pm, Resources resources,
-            MediaSession.Token token) {
+    public MediaAppDetails(PackageItemInfo info, PackageManager pm, MediaSession.Token token) {
         packageName = info.packageName;
         appName = info.loadLabel(pm).toString();
-        Drawable appIcon = info.loadIcon(pm);
-        icon = BitmapUtils.convertDrawable(resources, appIcon, true);
-        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.LOLLIPOP) {
-            Drawable appBanner = info.loadBanner(pm);
-            if (appBanner != null) {
-                banner = BitmapUtils.convertDrawable(resources, appBanner, false);
-            }
-        }
+        mInfo = info;
 
         if (token != null) {
             // If we have a MediaSession Token, then we don't need to connect to the
@@ -120,12 +139,140 @@ public class MediaAppDetails implements Parcelable {
                 }
             }
         } catch (PackageManager.NameNotFoundException e) {
-            Log.w("MediaAppDetails", "package name not found" + packageName);
+            Log.w(TAG, "package name not found" + packageName);
+        }
+    }
+
+    public MediaAppDetails(PackageItemInfo info, PackageManager pm) {
+        this(info, pm, null);
+    }
+
+    /**
+     * Returns the app's icon, no larger than {@code R.dimen.app_icon_size}, loading it from the
+     * app's package the first time.
+     */
+    @NonNull
+    public synchronized Bitmap getIcon(@NonNull Context context) {
+        if (mIcon == null) {
+            final Resources res = context.getResources();
+            // Browser services can have their own icon, so they are cached by component
+            final String iconKey =
+                    componentName != null ? componentName.flattenToString() : packageName;
+            mIcon = BitmapUtils.getCachedIcon(res, iconKey);
+            if (mIcon == null) {
+                final PackageManager pm = context.getPackageManager();
+                final PackageItemInfo info = resolvePackageItemInfo(pm);
+                final Drawable appIcon =
+                        info != null ? info.loadIcon(pm) : pm.getDefaultActivityIcon();
+                mIcon = BitmapUtils.convertIcon(res, appIcon, iconKey);
+            }
+        }
+        return mIcon;
+    }
+
+    /**
+     * Returns the app's TV banner, if it has one, loading it from the app's package the first
+     * time.
+     */
+    @Nullable
+    public synchronized Bitmap getBanner(@NonNull Context context) {
+        if (!mBannerLoaded) {
+            mBannerLoaded = true;
+            // This TV app targets min sdk version 21, and a banner will only be present for the
+            // TV app
+            if (Build.VERSION.SDK_INT > Build.VERSION_CODES.LOLLIPOP) {
+                final PackageManager pm = context.getPackageManager();
+                final PackageItemInfo info = resolvePackageItemInfo(pm);
+                if (info != null) {
+                    mBanner = loadBanner(context.getResources(), pm, info);
+                }
+            }
         }
+        return mBanner;
     }
 
-    public MediaAppDetails(PackageItemInfo info, PackageManager pm, Resources resources) {
-        this(info, pm, resources, null);
+    /**
+     * Loads the banner of a component, or of its app, at the size of a TV card. Bitmap banners
+     * are subsampled while they are decoded, since some apps ship banners far larger than the
+     * card.
+     */
+    @Nullable
+    private static Bitmap loadBanner(Resources res, PackageManager pm, PackageItemInfo info) {
+        final int width = res.getDimensionPixelSize(R.dimen.tv_banner_width);
+        final int height = res.getDimensionPixelSize(R.dimen.tv_banner_height);
+
+        final ApplicationInfo appInfo = info instanceof ComponentInfo
+                ? ((ComponentInfo) info).applicationInfo
+                : info instanceof ApplicationInfo ? (ApplicationInfo) info : null;
+        final int bannerId = info.banner != 0 || appInfo == null ? info.banner : appInfo.banner;
+        if (bannerId != 0 && appInfo != null) {
+            try {
+                final Bitmap banner = BitmapUtils.decodeResource(
+                        pm.getResourcesForApplication(appInfo), bannerId, width, height);
+                if (banner != null) {
+                    return banner;
+                }
+            } catch (PackageManager.NameNotFoundException | Resources.NotFoundException e) {
+                Log.w(TAG, "Unable to decode banner of " + info.packageName, e);
+            }
+        }
+
+        // Not a bitmap, such as a vector drawable, so draw it at the size of the card.
+        final Drawable appBanner = info.loadBanner(pm);
+        return appBanner != null
+                ? BitmapUtils.convertDrawable(res, appBanner, width, height)
+                : null;
+    }
+
+    /**
+     * Returns true if the banner was looked up, even if the app turned out to have none.
+     */
+    public synchronized boolean isBannerLoaded() {
+        return mBannerLoaded;
+    }
+
+    /**
+     * Records that the app has no banner, so that {@link #getBanner} doesn't look for one.
+     */
+    public synchronized void setNoBanner() {
+        mBanner = null;
+        mBannerLoaded = true;
+    }
+
+    /**
+     * Returns the icon if it was already loaded, without loading it.
+     */
+    @Nullable
+    public synchronized Bitmap getLoadedIcon() {
+        return mIcon;
+    }
+
+    /**
+     * Returns the banner if it was already loaded, without loading it.
+     */
+    @Nullable
+    public synchronized Bitmap getLoadedBanner() {
+        return mBanner;
+    }
+
+    private void setBanner(@Nullable Bitmap appBanner) {
+        // A missing banner is loaded from the package if it is asked for.
+        mBanner = appBanner;
+        mBannerLoaded = appBanner != null;
+    }
+
+    @Nullable
+    private PackageItemInfo resolvePackageItemInfo(PackageManager pm) {
+        if (mInfo == null) {
+            try {
+                mInfo = componentName != null
+                        ? pm.getServiceInfo(componentName, 0)
+                        : pm.getApplicationInfo(packageName, 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(TAG, "package name not found" + packageName);
+            }
+        }
+        return mInfo;
     }
 
     /**
@@ -158,7 +305,6 @@ public class MediaAppDetails implements Parcelable {
     private MediaAppDetails(final Parcel parcel) {
         packageName = parcel.readString();
         appName = parcel.readString();
-        icon = parcel.readParcelable(MediaAppDetails.class.getClassLoader());
         sessionToken = parcel.readParcelable(MediaAppDetails.class.getClassLoader());
         componentName = parcel.readParcelable(MediaAppDetails.class.getClassLoader());
         supportsAuto = parcel.readInt() == 1;
@@ -174,7 +320,6 @@ public class MediaAppDetails implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(packageName);
         dest.writeString(appName);
-        dest.writeParcelable(icon, flags);
         dest.writeParcelable(sessionToken, flags);
         dest.writeParcelable(componentName, flags);
         dest.writeInt(supportsAuto ? 1 : 0);
@@ -19,6 +19,8 @@ import androidx.annotation.LayoutRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
+import androidx.core.util.ObjectsCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.ViewHolder;
@@ -31,6 +33,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -94,9 +97,31 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
 
         ViewType viewType();
 
+        /**
+         * Returns a key that identifies the item across updates, even when its contents change.
+         * Contents are compared with {@link Object#equals}.
+         */
+        Object itemKey();
+
         void bindTo(ViewHolder holder);
     }
 
+    private static final DiffUtil.ItemCallback<RecyclerViewItem> ITEM_DIFF =
+            new DiffUtil.ItemCallback<RecyclerViewItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull RecyclerViewItem oldItem,
+                        @NonNull RecyclerViewItem newItem) {
+                    return oldItem.viewType() == newItem.viewType()
+                            && oldItem.itemKey().equals(newItem.itemKey());
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull RecyclerViewItem oldItem,
+                        @NonNull RecyclerViewItem newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
     /**
      * An implementation of {@link RecyclerViewItem} for media apps.
      */
@@ -104,11 +129,15 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
 
         private final MediaAppDetails appDetails;
         private final MediaAppSelectedListener appSelectedListener;
+        // The app and how it is connected to, which stay the same when the app is found again
+        private final List<Object> key;
 
         public AppEntry(MediaAppDetails appDetails,
                 MediaAppSelectedListener appSelectedListener) {
             this.appDetails = appDetails;
             this.appSelectedListener = appSelectedListener;
+            key = Arrays.asList(
+                    appDetails.packageName, appDetails.componentName, appDetails.sessionToken);
         }
 
         @Override
@@ -116,10 +145,16 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
             return ViewType.AppEntry;
         }
 
+        @Override
+        public Object itemKey() {
+            return key;
+        }
+
         @Override
         public void bindTo(RecyclerView.ViewHolder vh) {
             ViewHolder holder = (ViewHolder) vh;
-            holder.appIconView.setImageBitmap(appDetails.icon);
+            holder.appIconView.setImageBitmap(
+                    appDetails.getIcon(holder.appIconView.getContext()));
             holder.appIconView.setContentDescription(
                     holder.appIconView.getContext().getString(R.string.app_icon_desc,
                             appDetails.appName));
@@ -159,12 +194,15 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
             }
 
             AppEntry that = (AppEntry) o;
-            return appDetails.equals(that.appDetails);
+            // An app updated with a new icon gets a new bitmap, so identity is enough.
+            return key.equals(that.key)
+                    && ObjectsCompat.equals(appDetails.appName, that.appDetails.appName)
+                    && appDetails.getLoadedIcon() == that.appDetails.getLoadedIcon();
         }
 
         @Override
         public int hashCode() {
-            return appDetails.hashCode();
+            return key.hashCode();
         }
     }
 
@@ -184,6 +222,11 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
             return ViewType.Header;
         }
 
+        @Override
+        public Object itemKey() {
+            return labelResId;
+        }
+
         @Override
         public void bindTo(RecyclerView.ViewHolder vh) {
             ViewHolder holder = (ViewHolder) vh;
@@ -241,6 +284,11 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
             return ViewType.Error;
         }
 
+        @Override
+        public Object itemKey() {
+            return errorMsgId;
+        }
+
         @Override
         public void bindTo(RecyclerView.ViewHolder vh) {
             ViewHolder holder = (ViewHolder) vh;
@@ -335,7 +383,9 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
 
     private final List<Section> mSections = new ArrayList<>();
 
-    private final List<RecyclerViewItem> mRecyclerViewEntries = new ArrayList<>();
+    // Diffs each new list against the shown one in the background
+    private final AsyncListDiffer<RecyclerViewItem> mDiffer =
+            new AsyncListDiffer<>(this, ITEM_DIFF);
     private final MediaAppSelectedListener mMediaAppSelectedListener;
 
     MediaAppListAdapter(@NonNull MediaAppSelectedListener itemClickListener) {
@@ -355,38 +405,14 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
     }
 
     private void updateData() {
-        final List<RecyclerViewItem> oldEntries = new ArrayList<>(mRecyclerViewEntries);
-        mRecyclerViewEntries.clear();
+        final List<RecyclerViewItem> entries = new ArrayList<>();
         for (Section section : mSections) {
             if (mSections.size() > 1) {
-                mRecyclerViewEntries.add(new Header(section.mLabel));
+                entries.add(new Header(section.mLabel));
             }
-            mRecyclerViewEntries.addAll(section.mItems);
+            entries.addAll(section.mItems);
         }
-
-        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-            @Override
-            public int getOldListSize() {
-                return oldEntries.size();
-            }
-
-            @Override
-            public int getNewListSize() {
-                return mRecyclerViewEntries.size();
-            }
-
-            @Override
-            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                return oldEntries.get(oldItemPosition)
-                        .equals(mRecyclerViewEntries.get(newItemPosition));
-            }
-
-            @Override
-            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                return areItemsTheSame(oldItemPosition, newItemPosition);
-            }
-        });
-        diffResult.dispatchUpdatesTo(this);
+        mDiffer.submitList(entries);
     }
 
     @NonNull
@@ -400,16 +426,16 @@ public class MediaAppListAdapter extends RecyclerView.Adapter<ViewHolder> {
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        mRecyclerViewEntries.get(position).bindTo(holder);
+        mDiffer.getCurrentList().get(position).bindTo(holder);
     }
 
     @Override
     public int getItemViewType(int position) {
-        return mRecyclerViewEntries.get(position).viewType().ordinal();
+        return mDiffer.getCurrentList().get(position).viewType().ordinal();
     }
 
     @Override
     public int getItemCount() {
-        return mRecyclerViewEntries.size();
+        return mDiffer.getCurrentList().size();
     }
 }
@@ -1,113 +1,427 @@
 package com.example.android.mediacontroller
 
 import android.content.Context
+import android.net.Uri
 import android.os.Handler
 import android.os.Looper
+import android.os.ParcelFileDescriptor
+import android.os.SystemClock
 import android.support.v4.media.MediaBrowserCompat
-import android.support.v4.media.MediaBrowserCompat.SubscriptionCallback
 import android.util.Log
 import android.widget.Toast
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.cancelAndJoin
 import kotlinx.coroutines.launch
-import java.io.OutputStream
-import java.io.PrintWriter
-import kotlin.coroutines.resume
-import kotlin.coroutines.suspendCoroutine
+import kotlinx.coroutines.withContext
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.util.concurrent.TimeoutException
 
 
 class MediaBrowseTreeSnapshot(private val context: Context, private val browser: MediaBrowserCompat):ViewModel() {
     private val TAG = "MediaBrowseTreeSnapshot"
 
 
+    private var snapshotJob: Job? = null
+
     /**
      * Loads the browsers top level children and runs a DFS on them printing out
      * each media item's contentes as it is visited.
+     *
+     * Output is flushed every [CHECKPOINT_INTERVAL] items or [CHECKPOINT_INTERVAL_MS], whichever
+     * comes first, and the progress is saved alongside so [resumeBrowserSnapshot] can continue
+     * the walk if it is interrupted. An interrupted snapshot also gets a trailer listing the
+     * pending nodes, which is overwritten if the snapshot is resumed. All file IO happens on
+     * [Dispatchers.IO].
+     *
+     * @param outputUri A writable document, such as one returned by ACTION_CREATE_DOCUMENT.
+     * @param format The file format to write. Only text snapshots can be resumed.
+     * @param parallelism The maximum number of subscriptions kept in flight while crawling. The
+     * output is written in the same order regardless of this value.
+     * @param pageSize Loads children this many at a time, or all at once if it is
+     * [BrowseTreeCrawler.NO_PAGING].
      */
-    fun takeBrowserSnapshot(outputStream: OutputStream) {
-
-        viewModelScope.launch {
-            val mediaItems: MutableList<MediaBrowserCompat.MediaItem> = getChildNodes(browser.root)
-            if (mediaItems.isNotEmpty()) {
-                runDFSOnBrowseTree(mediaItems, outputStream)
-                for (item in mediaItems) {
-                    Log.i(TAG, item.toString())
+    @JvmOverloads
+    fun takeBrowserSnapshot(outputUri: Uri,
+                            format: Format = Format.TEXT,
+                            parallelism: Int = BrowseTreeCrawler.DEFAULT_PARALLELISM,
+                            pageSize: Int = BrowseTreeCrawler.NO_PAGING) {
+        val previousJob = snapshotJob
+        snapshotJob = viewModelScope.launch {
+            previousJob?.cancelAndJoin()
+            val state = snapshotState()
+            onIo { state.clear() }
+            val crawler = newCrawler(parallelism, pageSize)
+            val run = openRun(state, crawler, format, outputUri, 0L, 0) ?: return@launch
+            run.execute {
+                val mediaItems = crawler.loadChildren(browser.root)
+                if (mediaItems.isNotEmpty()) {
+                    onIo { run.writer.writeHeader() }
+                    crawler.crawl(browser.root, mediaItems, run::visit)
+                    for (item in mediaItems) {
+                        Log.i(TAG, item.toString())
+                    }
+                    true
+                } else {
+                    notifyUser("No media items found, could not save tree.")
+                    false
                 }
-            } else {
-                notifyUser("No media items found, could not save tree.")
             }
         }
     }
 
-    private suspend fun getChildNodes(rootItemMid: String): MutableList<MediaBrowserCompat.MediaItem> =
-            suspendCoroutine {
-                val mediaItems: MutableList<MediaBrowserCompat.MediaItem> = ArrayList()
-                browser.subscribe(rootItemMid, object : SubscriptionCallback() {
-                    override fun onChildrenLoaded(parentId: String,
-                                                  children: List<MediaBrowserCompat.MediaItem>) {
-                        // Notify the main thread that all of the children have loaded
-                        mediaItems.addAll(children)
-                        super.onChildrenLoaded(parentId, children)
-                        it.resume(mediaItems)
+    /**
+     * Returns true if an earlier snapshot of this browser was interrupted and can be resumed.
+     */
+    fun hasResumableSnapshot() = snapshotState().exists()
+
+    /**
+     * Continues the last interrupted snapshot from its saved frontier, appending to the same
+     * document it was being written to.
+     */
+    @JvmOverloads
+    fun resumeBrowserSnapshot(parallelism: Int = BrowseTreeCrawler.DEFAULT_PARALLELISM,
+                              pageSize: Int = BrowseTreeCrawler.NO_PAGING) {
+        val previousJob = snapshotJob
+        snapshotJob = viewModelScope.launch {
+            previousJob?.cancelAndJoin()
+            val state = snapshotState()
+            val saved = onIo { state.load() }
+            if (saved == null) {
+                notifyUser("No snapshot to resume.")
+                return@launch
+            }
+            val crawler = newCrawler(parallelism, pageSize)
+            crawler.markExpanded(onIo { state.loadExpandedIds(saved) })
+            val frontier = try {
+                restoreFrontier(crawler, saved.frontier)
+            } catch (e: TimeoutException) {
+                // Nothing was written yet, so the saved state is left as it is to retry later.
+                Log.e(TAG, "Failed to restore snapshot frontier", e)
+                notifyUser("Could not reload the unfinished folders, try resuming again.")
+                return@launch
+            }
+            val run = openRun(state, crawler, Format.TEXT, saved.outputUri, saved.outputOffset,
+                    saved.visitedCount) ?: return@launch
+            run.execute {
+                crawler.crawl(frontier, run::visit)
+                true
+            }
+        }
+    }
+
+    /**
+     * Compares two snapshots of this app, such as ones taken before and after a change to its
+     * catalog, with [SnapshotDiff]. Every difference is logged and a summary is shown once the
+     * comparison is done. Both snapshots have to be in the same format, which is detected from
+     * their contents.
+     *
+     * @param oldUri A readable document holding the earlier snapshot.
+     * @param newUri A readable document holding the later snapshot.
+     */
+    fun compareSnapshots(oldUri: Uri, newUri: Uri) {
+        viewModelScope.launch {
+            try {
+                val summary = onIo {
+                    val oldFormat = detectFormat(oldUri)
+                    if (oldFormat != detectFormat(newUri)) {
+                        return@onIo null
                     }
-                })
+                    SnapshotDiff(snapshotSource(oldUri, oldFormat),
+                            snapshotSource(newUri, oldFormat)).run(LoggingDiffListener())
+                }
+                if (summary == null) {
+                    notifyUser("Both snapshots need to be in the same format.")
+                } else if (summary.identical) {
+                    notifyUser("The snapshots are identical.")
+                } else {
+                    Log.i(TAG, "Snapshot diff: $summary")
+                    notifyUser("${summary.added} items added, ${summary.removed} removed, " +
+                            "${summary.moved} moved and ${summary.changed} changed.")
+                }
+            } catch (e: IOException) {
+                Log.e(TAG, "Failed to compare snapshots", e)
+                notifyUser("Could not read the snapshot files.")
+            } catch (e: SecurityException) {
+                Log.e(TAG, "Lost access to snapshots", e)
+                notifyUser("Could not read the snapshot files.")
             }
+        }
+    }
 
     /**
-     * Kicks off the browse tree depth first search by visiting all of the top level media
-     * item nodes.
+     * Stops the snapshot that is currently being taken, if any.
      */
-    private suspend fun runDFSOnBrowseTree(mediaItems: MutableList<MediaBrowserCompat.MediaItem>, outputStream: OutputStream) {
-        val printWriter = PrintWriter(outputStream)
-        printWriter.println("Root:")
-        for (item in mediaItems) {
-            visitMediaItemNode(item, printWriter, 1)
-        }
-        printWriter.flush()
-        printWriter.close()
-        outputStream.close()
-        notifyUser("MediaItems saved to specified location.")
+    fun cancelSnapshot() {
+        snapshotJob?.cancel()
+        snapshotJob = null
     }
 
+    private fun newCrawler(parallelism: Int, pageSize: Int) = BrowseTreeCrawler(browser,
+            parallelism, BrowseTreeCrawler.DEFAULT_LOAD_TIMEOUT_MS, pageSize)
+
+    private fun snapshotState() = BrowseTreeSnapshotState(context.applicationContext,
+            browser.serviceComponent.flattenToShortString())
+
     /**
-     * Visits a media item node by printing out its contents and then visiting all of its children.
+     * Runs file IO on [Dispatchers.IO]. It can't be cancelled, so a run that is cancelled while
+     * it saves its progress still leaves complete files behind, and the next run, which joins
+     * the cancelled one, never sees them half written.
      */
-    private suspend fun visitMediaItemNode(mediaItem: MediaBrowserCompat.MediaItem?, printWriter: PrintWriter, depth: Int) {
-        if (mediaItem != null) {
-            printMediaItemDescription(printWriter, mediaItem, depth)
-            val mid = if (mediaItem.mediaId != null) mediaItem.mediaId!! else ""
+    private suspend fun <T> onIo(block: () -> T): T =
+            withContext(NonCancellable + Dispatchers.IO) { block() }
 
-            // If a media item is not a leaf continue DFS on it
-            if (mediaItem.isBrowsable && mid != "") {
+    private suspend fun openRun(state: BrowseTreeSnapshotState,
+                        crawler: BrowseTreeCrawler,
+                        format: Format,
+                        outputUri: Uri,
+                        outputOffset: Long,
+                        visitedCount: Int): SnapshotRun? {
+        return try {
+            val output = onIo { openOutput(outputUri, outputOffset) }
+            SnapshotRun(state, crawler, format, outputUri, output, visitedCount)
+        } catch (e: IOException) {
+            Log.e(TAG, "Failed to open snapshot output", e)
+            notifyUser("Could not open the snapshot file.")
+            null
+        } catch (e: SecurityException) {
+            Log.e(TAG, "Lost access to snapshot output", e)
+            notifyUser("Could not open the snapshot file.")
+            null
+        }
+    }
 
-                val mediaChildren: MutableList<MediaBrowserCompat.MediaItem> = getChildNodes(mid)
+    /**
+     * Opens [uri] for writing, dropping everything past [offset].
+     */
+    private fun openOutput(uri: Uri, offset: Long): CountingOutputStream {
+        val descriptor = context.contentResolver.openFileDescriptor(uri,
+                if (offset == 0L) "wt" else "rw")
+                ?: throw FileNotFoundException("Could not open $uri")
+        val outputStream = ParcelFileDescriptor.AutoCloseOutputStream(descriptor)
+        if (offset > 0L) {
+            outputStream.channel.truncate(offset)
+            outputStream.channel.position(offset)
+        }
+        return CountingOutputStream(outputStream, offset)
+    }
 
-                // Run visit on all of the nodes children
-                for (mediaItemChild in mediaChildren) {
-                    visitMediaItemNode(mediaItemChild, printWriter, depth + 1)
-                    Log.i(TAG, "Visiting:" + mediaItemChild.toString())
+    /**
+     * Tells the formats apart by the magic number binary snapshots start with.
+     */
+    private fun detectFormat(uri: Uri): Format {
+        val input = context.contentResolver.openInputStream(uri)
+                ?: throw FileNotFoundException("Could not open $uri")
+        DataInputStream(input).use {
+            return try {
+                if (it.readInt() == BinarySnapshotFormat.MAGIC) Format.BINARY else Format.TEXT
+            } catch (e: EOFException) {
+                Format.TEXT
+            }
+        }
+    }
+
+    private fun snapshotSource(uri: Uri, format: Format) = when (format) {
+        Format.TEXT -> SnapshotSource.text {
+            context.contentResolver.openInputStream(uri)
+                    ?: throw FileNotFoundException("Could not open $uri")
+        }
+        Format.BINARY -> SnapshotSource.binary {
+            val descriptor = context.contentResolver.openFileDescriptor(uri, "r")
+                    ?: throw FileNotFoundException("Could not open $uri")
+            BinarySnapshotReader(ParcelFileDescriptor.AutoCloseInputStream(descriptor).channel)
+        }
+    }
+
+    /**
+     * Rebuilds the crawler nodes of a saved frontier, along with their saved ancestors. Nodes
+     * that were not visited yet are looked up again in their parent's children, since only
+     * their IDs were saved.
+     *
+     * Each parent is loaded once through [BrowseTreeCrawler.loadChildren], so with the crawler's
+     * paging and per-page timeout. The loads are subscriptions and don't block the main thread,
+     * but they run one after another.
+     *
+     * @throws TimeoutException If a parent doesn't load in time, in which case the resume
+     * should be abandoned without touching the saved state.
+     */
+    private suspend fun restoreFrontier(crawler: BrowseTreeCrawler,
+                                        frontier: List<BrowseTreeSnapshotState.FrontierEntry>):
+            List<BrowseTreeCrawler.Node> {
+        val siblings = HashMap<String, Map<String, MediaBrowserCompat.MediaItem>>()
+        val nodes = ArrayList<BrowseTreeCrawler.Node>(frontier.size)
+        for (entry in frontier) {
+            val node = if (entry.expanded) {
+                BrowseTreeCrawler.Node(entry.mediaId, entry.depth, entry.parentId)
+            } else {
+                val children = siblings.getOrPut(entry.parentId) {
+                    crawler.loadChildren(entry.parentId, entry.depth - 1)
+                            .associateBy { it.mediaId ?: "" }
+                }
+                children[entry.mediaId]?.let {
+                    BrowseTreeCrawler.Node(it, entry.depth, entry.parentId)
                 }
             }
+            if (node != null) {
+                if (entry.ancestors.isNotEmpty()) {
+                    node.ancestors = entry.ancestors
+                }
+                nodes.add(node)
+            } else {
+                Log.w(TAG, "${entry.mediaId} is no longer a child of ${entry.parentId}")
+            }
         }
+        return nodes
     }
 
     /**
-     * Prints the contents of a media item using a print writer.
+     * Writes the nodes of a single crawl and saves its progress at every checkpoint.
      */
-    private fun printMediaItemDescription(printWriter: PrintWriter, mediaItem: MediaBrowserCompat.MediaItem, depth: Int) {
-        val descriptionCompat = mediaItem.description
-        // Tab the media item to the respective depth
-        val tabStr = String(CharArray(depth)).replace("\u0000",
-                "\t")
-        val titleStr = if (descriptionCompat.title != null) descriptionCompat.title.toString() else "NAN"
-        val subTitleStr = if (descriptionCompat.subtitle != null) descriptionCompat.subtitle.toString() else "NAN"
-        val mIDStr = if (descriptionCompat.mediaId != null) descriptionCompat.mediaId else "NAN"
-        val uriStr = if (descriptionCompat.mediaUri != null) descriptionCompat.mediaUri.toString() else "NAN"
-        val desStr = if (descriptionCompat.description != null) descriptionCompat.description.toString() else "NAN"
-        val infoStr = String.format(
-                "%sTitle:%s,Subtitle:%s,MediaId:%s,URI:%s,Description:%s",
-                tabStr, titleStr, subTitleStr, mIDStr, uriStr, desStr)
-        printWriter.println(infoStr)
+    private inner class SnapshotRun(private val state: BrowseTreeSnapshotState,
+                                    private val crawler: BrowseTreeCrawler,
+                                    private val format: Format,
+                                    private val outputUri: Uri,
+                                    private val output: CountingOutputStream,
+                                    private val previouslyVisited: Int) {
+        val writer: BrowseTreeSnapshotWriter = when (format) {
+            Format.TEXT -> TextSnapshotWriter(output)
+            Format.BINARY -> BinarySnapshotWriter(output)
+        }
+
+        // Nodes visited since the last checkpoint, which writes them out
+        private val pendingNodes = ArrayList<BrowseTreeCrawler.Node>()
+        private val newlyExpandedIds = ArrayList<String>()
+        private var sinceCheckpoint = 0
+        private var lastCheckpointTime = SystemClock.elapsedRealtime()
+
+        private val visitedCount
+            get() = previouslyVisited + crawler.visitedCount
+
+        suspend fun visit(node: BrowseTreeCrawler.Node) {
+            pendingNodes.add(node)
+            if (format.resumable && node.isExpandable) {
+                newlyExpandedIds.add(node.mediaId)
+            }
+            when (node.finding) {
+                BrowseTreeCrawler.Finding.CYCLE ->
+                    Log.w(TAG, "Not expanding ${node.mediaId}, it is its own ancestor")
+                BrowseTreeCrawler.Finding.DUPLICATE ->
+                    Log.w(TAG, "Not expanding ${node.mediaId}, it was already expanded")
+                null -> Log.i(TAG, "Visiting:" + node.item.toString())
+            }
+
+            val now = SystemClock.elapsedRealtime()
+            if (++sinceCheckpoint >= CHECKPOINT_INTERVAL ||
+                    now - lastCheckpointTime >= CHECKPOINT_INTERVAL_MS) {
+                checkpoint()
+                sinceCheckpoint = 0
+                lastCheckpointTime = now
+            }
+        }
+
+        /**
+         * Runs [crawl], which returns false if there was nothing to save. The saved progress is
+         * dropped once the snapshot completes.
+         */
+        suspend fun execute(crawl: suspend () -> Boolean) {
+            try {
+                if (crawl()) {
+                    onIo {
+                        writePendingNodes()
+                        writer.writeLoadStats(crawler.loadStats)
+                        writer.checkpoint()
+                    }
+                    if (crawler.cycleCount > 0 || crawler.duplicateCount > 0) {
+                        notifyUser("MediaItems saved to specified location. Skipped " +
+                                "${crawler.cycleCount} cycles and " +
+                                "${crawler.duplicateCount} duplicate subtrees.")
+                    } else {
+                        notifyUser("MediaItems saved to specified location.")
+                    }
+                }
+                onIo { state.clear() }
+            } catch (e: Exception) {
+                Log.e(TAG, "Browse tree snapshot interrupted", e)
+                try {
+                    val visited = visitedCount
+                    val frontier = crawler.frontier()
+                    if (format.resumable && visited > 0) {
+                        checkpoint()
+                    } else {
+                        onIo {
+                            writePendingNodes()
+                            writer.checkpoint()
+                            state.clear()
+                        }
+                    }
+                    onIo { writer.writeTrailer(visited, frontier) }
+                } catch (e: IOException) {
+                    Log.e(TAG, "Failed to save snapshot progress", e)
+                }
+                notifyUser("Snapshot interrupted after $visitedCount items.")
+                if (e is CancellationException) {
+                    throw e
+                }
+            } finally {
+                for (line in crawler.loadStats.summary()) {
+                    Log.i(TAG, "Load stats: $line")
+                }
+                try {
+                    onIo { writer.close() }
+                } catch (e: IOException) {
+                    Log.e(TAG, "Failed to close snapshot output", e)
+                }
+            }
+        }
+
+        /**
+         * Writes the nodes visited since the last checkpoint and saves the progress. The crawl
+         * waits for the visitor, so nothing changes the crawler while the files are written.
+         */
+        private suspend fun checkpoint() {
+            val visited = visitedCount
+            val frontier = if (format.resumable) crawler.frontier() else null
+            onIo {
+                writePendingNodes()
+                writer.checkpoint()
+                if (frontier != null) {
+                    state.save(outputUri, output.count, visited, newlyExpandedIds, frontier)
+                }
+            }
+            newlyExpandedIds.clear()
+        }
+
+        private fun writePendingNodes() {
+            for (node in pendingNodes) {
+                writer.writeNode(node.item, node.depth)
+            }
+            pendingNodes.clear()
+        }
+    }
+
+    private inner class LoggingDiffListener : SnapshotDiff.Listener {
+        override fun onAdded(node: SnapshotNode, parentId: String?) {
+            Log.i(TAG, "Added under $parentId: $node")
+        }
+
+        override fun onRemoved(node: SnapshotNode, parentId: String?) {
+            Log.i(TAG, "Removed from $parentId: $node")
+        }
+
+        override fun onMoved(node: SnapshotNode, oldParentId: String?, newParentId: String?) {
+            Log.i(TAG, "Moved from $oldParentId to $newParentId: ${node.mediaId}")
+        }
+
+        override fun onChanged(oldNode: SnapshotNode, newNode: SnapshotNode) {
+            Log.i(TAG, "Changed: $oldNode -> $newNode")
+        }
     }
 
     /**
@@ -123,4 +437,26 @@ class MediaBrowseTreeSnapshot(private val context: Context, private val browser:
             toast.show()
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Snapshot file formats.
+     *
+     * @param resumable True if a partial snapshot can be continued by appending to it.
+     */
+    enum class Format(val resumable: Boolean) {
+        /**
+         * Tab-indented lines, one per media item.
+         */
+        TEXT(true),
+
+        /**
+         * The indexed format read by [BinarySnapshotReader].
+         */
+        BINARY(false)
+    }
+
+    companion object {
+        private const val CHECKPOINT_INTERVAL = 500
+        private const val CHECKPOINT_INTERVAL_MS = 2000L
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller;
+
+import android.content.res.Resources;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Formats the "key = value" lines of the media info panel.
+ * <p>
+ * The fields and their order are worked out once: labels in mixed case first, then the
+ * all caps action names, each in alphabetical order. Every update is then written into a reused
+ * {@link StringBuilder} and compared with the previous one, so an update that changes nothing
+ * allocates nothing.
+ */
+final class MediaInfoFormatter {
+    private static final int FIELD_STATE = 0;
+    private static final int FIELD_TITLE = 1;
+    private static final int FIELD_ARTIST = 2;
+    private static final int FIELD_ALBUM = 3;
+    private static final int FIRST_ACTION_FIELD = 4;
+
+    private static final long[] ACTIONS = {
+            PlaybackStateCompat.ACTION_PREPARE_FROM_SEARCH,
+            PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH,
+            PlaybackStateCompat.ACTION_PREPARE_FROM_MEDIA_ID,
+            PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID,
+            PlaybackStateCompat.ACTION_PREPARE_FROM_URI,
+            PlaybackStateCompat.ACTION_PLAY_FROM_URI,
+            PlaybackStateCompat.ACTION_PREPARE,
+            PlaybackStateCompat.ACTION_PLAY
+    };
+    private static final String[] ACTION_NAMES = {
+            "ACTION_PREPARE_FROM_SEARCH",
+            "ACTION_PLAY_FROM_SEARCH",
+            "ACTION_PREPARE_FROM_MEDIA_ID",
+            "ACTION_PLAY_FROM_MEDIA_ID",
+            "ACTION_PREPARE_FROM_URI",
+            "ACTION_PLAY_FROM_URI",
+            "ACTION_PREPARE",
+            "ACTION_PLAY"
+    };
+    private static final String SUPPORTED = "Supported";
+
+    // Indexed by PlaybackStateCompat.STATE_*
+    private static final String[] STATE_NAMES = {
+            "STATE_NONE",
+            "STATE_STOPPED",
+            "STATE_PAUSED",
+            "STATE_PLAYING",
+            "STATE_FAST_FORWARDING",
+            "STATE_REWINDING",
+            "STATE_BUFFERING",
+            "STATE_ERROR",
+            "STATE_CONNECTING",
+            "STATE_SKIPPING_TO_PREVIOUS",
+            "STATE_SKIPPING_TO_NEXT",
+            "STATE_SKIPPING_TO_QUEUE_ITEM"
+    };
+    private static final String UNKNOWN_STATE = "!Unknown State!";
+
+    private final String[] mLabels = new String[FIRST_ACTION_FIELD + ACTIONS.length];
+    // Fields in the order they are shown
+    private final Integer[] mOrder = new Integer[mLabels.length];
+    private StringBuilder mText = new StringBuilder(256);
+    private StringBuilder mPreviousText = new StringBuilder(256);
+    private boolean mChanged = true;
+    // What text() returned last, handed out again until the text changes
+    private String mShownText;
+
+    MediaInfoFormatter(@NonNull Resources resources) {
+        this(resources.getString(R.string.info_state_string),
+                resources.getString(R.string.info_title_string),
+                resources.getString(R.string.info_artist_string),
+                resources.getString(R.string.info_album_string));
+    }
+
+    MediaInfoFormatter(@NonNull String stateLabel, @NonNull String titleLabel,
+                       @NonNull String artistLabel, @NonNull String albumLabel) {
+        mLabels[FIELD_STATE] = stateLabel;
+        mLabels[FIELD_TITLE] = titleLabel;
+        mLabels[FIELD_ARTIST] = artistLabel;
+        mLabels[FIELD_ALBUM] = albumLabel;
+        System.arraycopy(ACTION_NAMES, 0, mLabels, FIRST_ACTION_FIELD, ACTION_NAMES.length);
+
+        for (int i = 0; i < mOrder.length; ++i) {
+            mOrder[i] = i;
+        }
+        Arrays.sort(mOrder, new LabelComparator(mLabels));
+    }
+
+    static String playbackStateToName(int playbackState) {
+        if (playbackState >= 0 && playbackState < STATE_NAMES.length) {
+            return STATE_NAMES[playbackState];
+        }
+        return UNKNOWN_STATE;
+    }
+
+    /**
+     * Formats the panel for the given state and metadata.
+     *
+     * @return Whether the text differs from the one formatted last time.
+     */
+    boolean update(@NonNull PlaybackStateCompat playbackState,
+                   @Nullable MediaMetadataCompat mediaMetadata) {
+        final StringBuilder text = mPreviousText;
+        mPreviousText = mText;
+        mText = text;
+        text.setLength(0);
+
+        final long actions = playbackState.getActions();
+        for (int i = 0; i < mOrder.length; ++i) {
+            final int field = mOrder[i];
+            final CharSequence value;
+            switch (field) {
+                case FIELD_STATE:
+                    value = playbackStateToName(playbackState.getState());
+                    break;
+                case FIELD_TITLE:
+                    value = metadataText(mediaMetadata, MediaMetadataCompat.METADATA_KEY_TITLE);
+                    break;
+                case FIELD_ARTIST:
+                    value = metadataText(mediaMetadata, MediaMetadataCompat.METADATA_KEY_ARTIST);
+                    break;
+                case FIELD_ALBUM:
+                    value = metadataText(mediaMetadata, MediaMetadataCompat.METADATA_KEY_ALBUM);
+                    break;
+                default:
+                    value = (actions & ACTIONS[field - FIRST_ACTION_FIELD]) != 0 ? SUPPORTED : null;
+                    break;
+            }
+            if (value != null && value.length() > 0) {
+                text.append(mLabels[field]).append(" = ").append(value).append('\n');
+            }
+        }
+
+        mChanged |= !contentEquals(text, mPreviousText);
+        return mChanged;
+    }
+
+    /**
+     * Returns the text formatted by the last {@link #update}, and marks it as shown. The same
+     * String is returned until an update changes the text.
+     */
+    @NonNull
+    String text() {
+        if (mChanged || mShownText == null) {
+            mShownText = mText.toString();
+        }
+        mChanged = false;
+        return mShownText;
+    }
+
+    /**
+     * Makes the next {@link #update} report a change, such as when the panel was cleared.
+     */
+    void reset() {
+        mChanged = true;
+    }
+
+    @Nullable
+    private static CharSequence metadataText(@Nullable MediaMetadataCompat mediaMetadata,
+                                             String key) {
+        return mediaMetadata != null ? mediaMetadata.getText(key) : null;
+    }
+
+    private static boolean contentEquals(CharSequence text, CharSequence other) {
+        final int length = text.length();
+        if (length != other.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (text.charAt(i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Orders fields by label, with the all caps labels of actions after the others.
+     */
+    private static class LabelComparator implements Comparator<Integer> {
+        private final String[] mLabels;
+
+        LabelComparator(String[] labels) {
+            mLabels = labels;
+        }
+
+        @Override
+        public int compare(Integer leftField, Integer rightField) {
+            final String leftSide = mLabels[leftField];
+            final String rightSide = mLabels[rightField];
+            final boolean leftCaps = isAllCaps(leftSide);
+            final boolean rightCaps = isAllCaps(rightSide);
+
+            if (leftCaps && !rightCaps) {
+                return 1;
+            } else if (rightCaps && !leftCaps) {
+                return -1;
+            }
+            return leftSide.compareTo(rightSide);
+        }
+
+        private static boolean isAllCaps(@NonNull final String stringToCheck) {
+            return stringToCheck.equals(stringToCheck.toUpperCase(Locale.US));
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import java.io.InputStream
+
+/**
+ * A snapshot that can be streamed from the start any number of times.
+ */
+fun interface SnapshotSource {
+    fun forEachNode(visitor: (SnapshotNode) -> Unit)
+
+    companion object {
+        /**
+         * Streams a text snapshot, calling [open] each time a new pass is needed.
+         */
+        fun text(open: () -> InputStream) = SnapshotSource { visitor ->
+            TextSnapshotReader(open()).use { it.forEachNode(visitor) }
+        }
+
+        /**
+         * Streams a binary snapshot, calling [open] each time a new pass is needed.
+         */
+        fun binary(open: () -> BinarySnapshotReader) = SnapshotSource { visitor ->
+            open().use { it.forEachNode(visitor) }
+        }
+    }
+}
+
+/**
+ * Compares two snapshots of the same app's browse tree, keyed by media ID.
+ *
+ * The diff runs in linear time and only keeps a few longs per node of the old snapshot in
+ * memory, plus the details of the nodes that actually moved or changed:
+ *  1. The old snapshot is streamed into a table of media ID fingerprint to parent fingerprint
+ *     and content hash.
+ *  2. The new snapshot is streamed against the table. Nodes that aren't in it are reported as
+ *     added right away, the rest are marked as seen.
+ *  3. The old snapshot is streamed again to report nodes that were never seen as removed, and
+ *     nodes with a different parent or content as moved or changed.
+ *
+ * A node's parent is the closest node above it in the snapshot, or null at the top level.
+ * Nodes without a media ID can't be matched and are only counted, and if a media ID appears
+ * more than once in a snapshot only its first occurrence is compared. Text snapshots don't
+ * record flags or icon URIs, so both snapshots should be in the same format.
+ */
+class SnapshotDiff(private val oldSnapshot: SnapshotSource,
+                   private val newSnapshot: SnapshotSource) {
+
+    interface Listener {
+        fun onAdded(node: SnapshotNode, parentId: String?) {}
+        fun onRemoved(node: SnapshotNode, parentId: String?) {}
+        fun onMoved(node: SnapshotNode, oldParentId: String?, newParentId: String?) {}
+        fun onChanged(oldNode: SnapshotNode, newNode: SnapshotNode) {}
+    }
+
+    class Summary(val added: Int,
+                  val removed: Int,
+                  val moved: Int,
+                  val changed: Int,
+                  val unchanged: Int,
+                  val unkeyed: Int,
+                  val duplicates: Int) {
+        val identical
+            get() = added == 0 && removed == 0 && moved == 0 && changed == 0
+
+        override fun toString() =
+                "Added:$added,Removed:$removed,Moved:$moved,Changed:$changed," +
+                        "Unchanged:$unchanged,Unkeyed:$unkeyed,Duplicates:$duplicates"
+    }
+
+    fun run(listener: Listener): Summary {
+        val table = NodeTable()
+        var unkeyed = 0
+        var duplicates = 0
+
+        // Pass 1: index the old snapshot.
+        oldSnapshot.forEachNode(ParentTracker { node, fingerprint, parentFingerprint, _ ->
+            if (fingerprint == NO_FINGERPRINT) {
+                unkeyed++
+            } else if (!table.insert(fingerprint, parentFingerprint, contentHash(node))) {
+                duplicates++
+            }
+        })
+
+        // Pass 2: match the new snapshot against it.
+        var added = 0
+        var unchanged = 0
+        val newParents = HashMap<Long, String?>()
+        val newNodes = HashMap<Long, SnapshotNode>()
+        newSnapshot.forEachNode(ParentTracker { node, fingerprint, parentFingerprint, parentId ->
+            if (fingerprint == NO_FINGERPRINT) {
+                unkeyed++
+                return@ParentTracker
+            }
+            val index = table.find(fingerprint)
+            if (index < 0) {
+                added++
+                listener.onAdded(node, parentId)
+                return@ParentTracker
+            }
+            if (table.state[index] != NodeTable.UNSEEN) {
+                duplicates++
+                return@ParentTracker
+            }
+
+            var state = NodeTable.SEEN
+            if (table.parents[index] != parentFingerprint) {
+                state = state or NodeTable.MOVED
+                newParents[fingerprint] = parentId
+            }
+            if (table.contents[index] != contentHash(node)) {
+                state = state or NodeTable.CHANGED
+                newNodes[fingerprint] = node
+            }
+            if (state == NodeTable.SEEN) {
+                unchanged++
+            }
+            table.state[index] = state
+        })
+
+        // Pass 3: report what happened to the old nodes.
+        var removed = 0
+        var moved = 0
+        var changed = 0
+        oldSnapshot.forEachNode(ParentTracker { node, fingerprint, _, parentId ->
+            val index = if (fingerprint == NO_FINGERPRINT) -1 else table.find(fingerprint)
+            if (index < 0) {
+                return@ParentTracker
+            }
+            val state = table.state[index]
+            // Clear the state so that later duplicates of this ID are skipped.
+            table.state[index] = NodeTable.REPORTED
+            when {
+                state == NodeTable.UNSEEN -> {
+                    removed++
+                    listener.onRemoved(node, parentId)
+                }
+                state == NodeTable.REPORTED -> Unit
+                else -> {
+                    if (state and NodeTable.MOVED != 0) {
+                        moved++
+                        listener.onMoved(node, parentId, newParents[fingerprint])
+                    }
+                    if (state and NodeTable.CHANGED != 0) {
+                        changed++
+                        listener.onChanged(node, newNodes.getValue(fingerprint))
+                    }
+                }
+            }
+        })
+
+        return Summary(added, removed, moved, changed, unchanged, unkeyed, duplicates)
+    }
+
+    /**
+     * Works out the parent of each node from the depths of the nodes streamed so far.
+     */
+    private class ParentTracker(
+            private val visitor: (node: SnapshotNode, fingerprint: Long,
+                                  parentFingerprint: Long, parentId: String?) -> Unit
+    ) : (SnapshotNode) -> Unit {
+        private var fingerprints = LongArray(INITIAL_DEPTH)
+        private var ids = arrayOfNulls<String>(INITIAL_DEPTH)
+
+        override fun invoke(node: SnapshotNode) {
+            val depth = node.depth
+            if (depth >= fingerprints.size) {
+                fingerprints = fingerprints.copyOf(depth * 2)
+                ids = ids.copyOf(depth * 2)
+            }
+            val parentFingerprint = if (depth > 1) fingerprints[depth - 1] else NO_FINGERPRINT
+            val parentId = if (depth > 1) ids[depth - 1] else null
+            val fingerprint = node.mediaId?.let { FingerprintSet.fingerprint(it) } ?: NO_FINGERPRINT
+            fingerprints[depth] = fingerprint
+            ids[depth] = node.mediaId
+            visitor(node, fingerprint, parentFingerprint, parentId)
+        }
+    }
+
+    /**
+     * Table from media ID fingerprint to parent fingerprint, content hash and match state. The
+     * IDs are kept in a [FingerprintSet], which numbers them, and the rest in parallel primitive
+     * arrays under those numbers.
+     */
+    private class NodeTable {
+        private val ids = FingerprintSet(INITIAL_CAPACITY, indexed = true)
+        var parents = LongArray(INITIAL_CAPACITY)
+        var contents = LongArray(INITIAL_CAPACITY)
+        var state = ByteArray(INITIAL_CAPACITY)
+
+        /**
+         * Returns false if [key] is already in the table.
+         */
+        fun insert(key: Long, parent: Long, content: Long): Boolean {
+            if (!ids.add(key)) {
+                return false
+            }
+            val index = ids.size - 1
+            if (index == parents.size) {
+                parents = parents.copyOf(index * 2)
+                contents = contents.copyOf(index * 2)
+                state = state.copyOf(index * 2)
+            }
+            parents[index] = parent
+            contents[index] = content
+            return true
+        }
+
+        /**
+         * Returns the index of [key] in the arrays, or -1 if it isn't in the table.
+         */
+        fun find(key: Long) = ids.indexOf(key)
+
+        companion object {
+            const val UNSEEN: Byte = 0
+            const val SEEN: Byte = 1
+            const val MOVED: Byte = 2
+            const val CHANGED: Byte = 4
+            const val REPORTED: Byte = 8
+
+            private const val INITIAL_CAPACITY = 1 shl 12
+        }
+    }
+
+    companion object {
+        /**
+         * Fingerprint used for "no media ID", which [FingerprintSet.fingerprint] never returns.
+         */
+        private const val NO_FINGERPRINT = 0L
+        private const val INITIAL_DEPTH = 16
+
+        private fun contentHash(node: SnapshotNode): Long {
+            var hash = node.flags.toLong()
+            hash = hash * 31 + fieldHash(node.title)
+            hash = hash * 31 + fieldHash(node.subtitle)
+            hash = hash * 31 + fieldHash(node.description)
+            hash = hash * 31 + fieldHash(node.mediaUri)
+            return hash * 31 + fieldHash(node.iconUri)
+        }
+
+        private fun fieldHash(value: String?) =
+                if (value == null) 0L else BinarySnapshotFormat.fingerprint(value)
+
+        private infix fun Byte.or(other: Byte) = (toInt() or other.toInt()).toByte()
+
+        private infix fun Byte.and(other: Byte) = toInt() and other.toInt()
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import java.io.BufferedReader
+import java.io.Closeable
+import java.io.InputStream
+import java.io.InputStreamReader
+
+/**
+ * Streams the nodes of a snapshot written by [TextSnapshotWriter], one line at a time.
+ *
+ * The text format doesn't record flags or icon URIs, and fields that were null are written as
+ * "NAN", so they are read back as null.
+ */
+class TextSnapshotReader(inputStream: InputStream) : Closeable {
+    private val reader = BufferedReader(InputStreamReader(inputStream, Charsets.UTF_8),
+            BUFFER_SIZE)
+
+    /**
+     * Calls [visitor] with every node in DFS preorder. The header and any trailer lines are
+     * skipped, as are lines that can't be parsed.
+     */
+    fun forEachNode(visitor: (SnapshotNode) -> Unit) {
+        while (true) {
+            val line = reader.readLine() ?: return
+            parseLine(line)?.let(visitor)
+        }
+    }
+
+    override fun close() {
+        reader.close()
+    }
+
+    private fun parseLine(line: String): SnapshotNode? {
+        var depth = 0
+        while (depth < line.length && line[depth] == '\t') {
+            ++depth
+        }
+        if (depth == 0 || !line.startsWith(TITLE, depth)) {
+            return null
+        }
+
+        val titleStart = depth + TITLE.length
+        val subtitleStart = line.indexOf(SUBTITLE, titleStart)
+        val mediaIdStart = line.indexOf(MEDIA_ID, subtitleStart + 1)
+        val uriStart = line.indexOf(URI, mediaIdStart + 1)
+        val descriptionStart = line.indexOf(DESCRIPTION, uriStart + 1)
+        if (subtitleStart < 0 || mediaIdStart < 0 || uriStart < 0 || descriptionStart < 0) {
+            return null
+        }
+
+        return SnapshotNode(depth, 0,
+                mediaId = field(line, mediaIdStart + MEDIA_ID.length, uriStart),
+                title = field(line, titleStart, subtitleStart),
+                subtitle = field(line, subtitleStart + SUBTITLE.length, mediaIdStart),
+                description = field(line, descriptionStart + DESCRIPTION.length, line.length),
+                mediaUri = field(line, uriStart + URI.length, descriptionStart),
+                iconUri = null)
+    }
+
+    private fun field(line: String, start: Int, end: Int): String? {
+        val value = line.substring(start, end)
+        return if (value == TextSnapshotWriter.NOT_AVAILABLE) null else value
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+        private const val TITLE = "Title:"
+        private const val SUBTITLE = ",Subtitle:"
+        private const val MEDIA_ID = ",MediaId:"
+        private const val URI = ",URI:"
+        private const val DESCRIPTION = ",Description:"
+    }
+}
@@ -15,15 +15,31 @@
  */
 package com.example.android.mediacontroller.tasks
 
-import android.os.AsyncTask
+import android.util.Log
 import com.example.android.mediacontroller.MediaAppDetails
+import kotlinx.coroutines.CoroutineExceptionHandler
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
 
 /**
- * Base class for an async task that fetches a list of media apps.
+ * Base class for a task that fetches a list of media apps.
+ *
+ * Finding the apps is a single query, but loading the details of each one takes several more
+ * [android.content.pm.PackageManager] calls, so the details are loaded a few apps at a time in
+ * the background. The callback is called on the main thread each time more apps are ready, and
+ * a last time with the complete list.
  */
 abstract class FindMediaAppsTask constructor(
         private val callback: AppListUpdatedCallback, private val sortAlphabetical: Boolean
-) : AsyncTask<Void, Void, List<MediaAppDetails>>() {
+) {
 
     /**
      * Callback used by [FindMediaAppsTask].
@@ -32,20 +48,94 @@ abstract class FindMediaAppsTask constructor(
         fun onAppListUpdated(mediaAppEntries: List<MediaAppDetails>)
     }
 
-    protected abstract val mediaApps: List<MediaAppDetails>
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+    private val loadErrorHandler = CoroutineExceptionHandler { _, e ->
+        Log.e(TAG, "Unable to load media app details", e)
+    }
+
+    /**
+     * Finds the media apps, returning a loader for the details of each one, which returns null
+     * if the app can't be loaded. Called on a background thread.
+     */
+    protected abstract fun findMediaApps(): List<() -> MediaAppDetails?>
+
+    /**
+     * Called on a background thread once the details of every app were loaded.
+     */
+    protected open fun onMediaAppsLoaded() {}
+
+    fun execute() {
+        scope.launch {
+            val loaders = withContext(Dispatchers.IO) { findMediaApps() }
+            val loaded = Channel<MediaAppDetails?>(Channel.UNLIMITED)
+            val permits = Semaphore(PARALLELISM)
+            // A loader that fails, even with an Error such as running out of memory on a large
+            // icon, neither cancels the others nor leaves the list waiting for it.
+            val loading = SupervisorJob(coroutineContext[Job]) + loadErrorHandler
+            for (loader in loaders) {
+                launch(Dispatchers.IO + loading) {
+                    var app: MediaAppDetails? = null
+                    try {
+                        app = permits.withPermit { load(loader) }
+                    } finally {
+                        loaded.trySend(app)
+                    }
+                }
+            }
+
+            val mediaApps = ArrayList<MediaAppDetails>(loaders.size)
+            var remaining = loaders.size
+            while (remaining > 0) {
+                // Take every app loaded since the last update, so that a burst of them is
+                // delivered at once.
+                var app: MediaAppDetails? = loaded.receive()
+                while (true) {
+                    --remaining
+                    app?.let { mediaApps.add(it) }
+                    val next = loaded.tryReceive()
+                    if (!next.isSuccess) {
+                        break
+                    }
+                    app = next.getOrNull()
+                }
+                if (remaining > 0 && mediaApps.isNotEmpty()) {
+                    callback.onAppListUpdated(sorted(mediaApps))
+                }
+            }
+            callback.onAppListUpdated(sorted(mediaApps))
+            withContext(Dispatchers.IO) { onMediaAppsLoaded() }
+        }
+    }
+
+    /**
+     * Stops looking for apps. The callback won't be called again.
+     */
+    fun cancel() {
+        scope.cancel()
+    }
+
+    private fun load(loader: () -> MediaAppDetails?): MediaAppDetails? {
+        return try {
+            loader()
+        } catch (e: RuntimeException) {
+            Log.e(TAG, "Unable to load media app details", e)
+            null
+        }
+    }
 
-    override fun doInBackground(vararg params: Void): List<MediaAppDetails> {
-        val mediaApps = ArrayList(mediaApps)
-        if(sortAlphabetical) {
+    private fun sorted(mediaApps: List<MediaAppDetails>): List<MediaAppDetails> {
+        val sortedApps = ArrayList(mediaApps)
+        if (sortAlphabetical) {
             // Sort the list by localized app name for convenience.
-            mediaApps.sortWith(Comparator { left, right ->
+            sortedApps.sortWith(Comparator { left, right ->
                 left.appName.compareTo(right.appName, ignoreCase = true)
             })
         }
-        return mediaApps
+        return sortedApps
     }
 
-    override fun onPostExecute(mediaAppEntries: List<MediaAppDetails>) {
-        callback.onAppListUpdated(mediaAppEntries)
+    companion object {
+        private const val TAG = "FindMediaAppsTask"
+        private const val PARALLELISM = 4
     }
-}
\ No newline at end of file
+}
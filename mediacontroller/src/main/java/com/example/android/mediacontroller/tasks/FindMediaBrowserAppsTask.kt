@@ -18,21 +18,28 @@ package com.example.android.mediacontroller.tasks
 import android.content.Context
 import android.content.Intent
 import android.content.pm.PackageManager
-import android.content.res.Resources
+import android.content.pm.ResolveInfo
+import android.content.pm.ServiceInfo
 import androidx.media.MediaBrowserServiceCompat
 import com.example.android.mediacontroller.MediaAppDetails
-import java.util.ArrayList
 
 /**
  * Implementation of [FindMediaAppsTask] that uses available implementations of
  * MediaBrowser to populate the list of apps.
+ *
+ * The icon of each app is loaded in the background along with its other details, and so is its
+ * banner if [loadBanners] is set.
  */
-class FindMediaBrowserAppsTask constructor(
-        context: Context, callback: AppListUpdatedCallback
+class FindMediaBrowserAppsTask @JvmOverloads constructor(
+        context: Context,
+        callback: AppListUpdatedCallback,
+        private val loadBanners: Boolean = false
 ) : FindMediaAppsTask(callback, sortAlphabetical = true) {
 
+    private val context: Context = context.applicationContext
     private val packageManager: PackageManager = context.packageManager
-    private val resources: Resources = context.resources
+    private val catalog = MediaAppCatalog.get(context)
+    private var services: List<ResolveInfo> = emptyList()
 
     /**
      * Finds installed packages that have registered a
@@ -40,27 +47,45 @@ class FindMediaBrowserAppsTask constructor(
      * [android.support.v4.media.MediaBrowserServiceCompat] service by
      * looking for packages that have services that respond to the
      * "android.media.browse.MediaBrowserService" action.
+     *
+     * Apps whose packages haven't changed since they were last loaded come from the
+     * [MediaAppCatalog].
      */
-    override val mediaApps: List<MediaAppDetails>
-        get() {
-            val mediaApps = ArrayList<MediaAppDetails>()
-            val mediaBrowserIntent = Intent(MediaBrowserServiceCompat.SERVICE_INTERFACE)
+    override fun findMediaApps(): List<() -> MediaAppDetails?> {
+        val mediaBrowserIntent = Intent(MediaBrowserServiceCompat.SERVICE_INTERFACE)
+
+        // Build an Intent that only has the MediaBrowserService action and query
+        // the PackageManager for apps that have services registered that can
+        // receive it.
+        services = packageManager.queryIntentServices(
+                mediaBrowserIntent,
+                PackageManager.GET_RESOLVED_FILTER
+        ).orEmpty()
 
-            // Build an Intent that only has the MediaBrowserService action and query
-            // the PackageManager for apps that have services registered that can
-            // receive it.
-            val services = packageManager.queryIntentServices(
-                    mediaBrowserIntent,
-                    PackageManager.GET_RESOLVED_FILTER
-            )
+        return services.map { info -> { loadDetails(info.serviceInfo) } }
+    }
 
-            if (services != null && !services.isEmpty()) {
-                for (info in services) {
-                    mediaApps.add(
-                            MediaAppDetails(info.serviceInfo, packageManager, resources)
-                    )
-                }
+    private fun loadDetails(serviceInfo: ServiceInfo): MediaAppDetails {
+        val cachedDetails = catalog.get(serviceInfo)
+        if (cachedDetails != null) {
+            if (loadBanners && !cachedDetails.isBannerLoaded) {
+                cachedDetails.getBanner(context)
+                catalog.updateBanner(serviceInfo, cachedDetails)
             }
-            return mediaApps
+            return cachedDetails
         }
+
+        val details = MediaAppDetails(serviceInfo, packageManager)
+        details.getIcon(context)
+        if (loadBanners) {
+            details.getBanner(context)
+        }
+        catalog.put(serviceInfo, details)
+        return details
+    }
+
+    override fun onMediaAppsLoaded() {
+        catalog.retainOnly(services.map { it.serviceInfo })
+        catalog.save()
+    }
 }
\ No newline at end of file
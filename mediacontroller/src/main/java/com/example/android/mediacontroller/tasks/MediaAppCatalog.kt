@@ -0,0 +1,334 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller.tasks
+
+import android.content.BroadcastReceiver
+import android.content.ComponentName
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.pm.PackageManager
+import android.content.pm.ServiceInfo
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.Log
+import androidx.core.content.pm.PackageInfoCompat
+import com.example.android.mediacontroller.BinarySnapshotFormat
+import com.example.android.mediacontroller.BitmapUtils
+import com.example.android.mediacontroller.MediaAppDetails
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * On-disk catalog of the media browser apps found on earlier launches, so that their names,
+ * icons, banners and Android Auto/Automotive support don't have to be loaded from their
+ * packages again.
+ *
+ * Apps are keyed by the component name of their MediaBrowserService, and an entry is only used
+ * while the version code and last update time of its package are still the same. Entries are
+ * also dropped as soon as their package is added, replaced, changed or removed while the app is
+ * running.
+ */
+class MediaAppCatalog private constructor(context: Context) {
+
+    private class Entry(val key: String,
+                        val appName: String,
+                        val versionCode: Long,
+                        val lastUpdateTime: Long,
+                        val flags: Int)
+
+    private val context = context.applicationContext
+    private val packageManager = context.packageManager
+    private val directory = File(context.cacheDir, DIRECTORY)
+    private val indexFile = File(directory, INDEX_FILE)
+    private var entries: HashMap<String, Entry>? = null
+    private var dirty = false
+
+    /**
+     * Returns the cached details of the app that exports [serviceInfo], or null if they aren't
+     * cached or its package changed since. Reads from disk, so must not be called on the main
+     * thread.
+     */
+    fun get(serviceInfo: ServiceInfo): MediaAppDetails? {
+        val key = keyOf(serviceInfo)
+        val entry = synchronized(this) { loadedEntries()[key] } ?: return null
+        val packageInfo = try {
+            packageManager.getPackageInfo(serviceInfo.packageName, 0)
+        } catch (e: PackageManager.NameNotFoundException) {
+            return null
+        }
+        if (PackageInfoCompat.getLongVersionCode(packageInfo) != entry.versionCode ||
+                packageInfo.lastUpdateTime != entry.lastUpdateTime) {
+            return null
+        }
+
+        val icon = BitmapFactory.decodeFile(iconFile(key).path) ?: return null
+        val banner = if (entry.flags and FLAG_BANNER != 0) {
+            BitmapFactory.decodeFile(bannerFile(key).path) ?: return null
+        } else {
+            null
+        }
+        val details = MediaAppDetails(ComponentName(serviceInfo.packageName, serviceInfo.name),
+                entry.appName, icon, banner,
+                entry.flags and FLAG_AUTO != 0, entry.flags and FLAG_AUTOMOTIVE != 0)
+        if (entry.flags and FLAG_NO_BANNER != 0) {
+            details.setNoBanner()
+        }
+        return details
+    }
+
+    /**
+     * Adds the details of the app that exports [serviceInfo]. The catalog is only written to
+     * disk by [save].
+     */
+    fun put(serviceInfo: ServiceInfo, details: MediaAppDetails) {
+        val key = keyOf(serviceInfo)
+        val packageInfo = try {
+            packageManager.getPackageInfo(serviceInfo.packageName, 0)
+        } catch (e: PackageManager.NameNotFoundException) {
+            return
+        }
+        if (!directory.isDirectory && !directory.mkdirs()) {
+            return
+        }
+        val banner = details.loadedBanner
+        if (!writeBitmap(details.getIcon(context), iconFile(key)) ||
+                banner != null && !writeBitmap(banner, bannerFile(key))) {
+            return
+        }
+
+        var flags = bannerFlags(details)
+        if (details.supportsAuto) flags = flags or FLAG_AUTO
+        if (details.supportsAutomotive) flags = flags or FLAG_AUTOMOTIVE
+        val entry = Entry(key, details.appName, PackageInfoCompat.getLongVersionCode(packageInfo),
+                packageInfo.lastUpdateTime, flags)
+        synchronized(this) {
+            loadedEntries()[key] = entry
+            dirty = true
+        }
+    }
+
+    /**
+     * Records the banner of an app that was cached before its banner was looked up, such as
+     * when the phone UI listed it before the TV UI, so that the banner isn't looked up again on
+     * every launch. Does nothing if the banner still hasn't been looked up, or is already
+     * recorded.
+     */
+    fun updateBanner(serviceInfo: ServiceInfo, details: MediaAppDetails) {
+        val key = keyOf(serviceInfo)
+        val entry = synchronized(this) { loadedEntries()[key] } ?: return
+        val flags = bannerFlags(details)
+        if (flags == 0 || entry.flags and (FLAG_BANNER or FLAG_NO_BANNER) != 0) {
+            return
+        }
+        val banner = details.loadedBanner
+        if (banner != null && !writeBitmap(banner, bannerFile(key))) {
+            return
+        }
+        synchronized(this) {
+            // Unless the entry was dropped or replaced in the meantime
+            if (loadedEntries()[key] === entry) {
+                loadedEntries()[key] = Entry(key, entry.appName, entry.versionCode,
+                        entry.lastUpdateTime, entry.flags or flags)
+                dirty = true
+            }
+        }
+    }
+
+    /**
+     * Drops the apps that aren't exported by any of [serviceInfos], such as apps that were
+     * uninstalled while this app wasn't running.
+     */
+    @Synchronized
+    fun retainOnly(serviceInfos: Collection<ServiceInfo>) {
+        val keys = serviceInfos.mapTo(HashSet()) { keyOf(it) }
+        val iterator = loadedEntries().values.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (entry.key !in keys) {
+                iterator.remove()
+                deleteFiles(entry.key)
+                dirty = true
+            }
+        }
+    }
+
+    /**
+     * Drops every app of [packageName]. If the catalog wasn't read yet, its entries for the
+     * package are left to be rejected by their package version instead.
+     */
+    @Synchronized
+    fun invalidate(packageName: String) {
+        val prefix = "$packageName/"
+        val iterator = entries?.values?.iterator() ?: return
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (entry.key.startsWith(prefix)) {
+                iterator.remove()
+                deleteFiles(entry.key)
+                dirty = true
+            }
+        }
+    }
+
+    /**
+     * Writes the catalog to disk if it changed.
+     */
+    @Synchronized
+    fun save() {
+        val entries = entries
+        if (!dirty || entries == null) {
+            return
+        }
+        if (!directory.isDirectory && !directory.mkdirs()) {
+            return
+        }
+        val tempFile = File(directory, INDEX_FILE + TEMP_SUFFIX)
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use { out ->
+                out.writeInt(FORMAT_VERSION)
+                out.writeInt(entries.size)
+                for (entry in entries.values) {
+                    out.writeUTF(entry.key)
+                    out.writeUTF(entry.appName)
+                    out.writeLong(entry.versionCode)
+                    out.writeLong(entry.lastUpdateTime)
+                    out.writeInt(entry.flags)
+                }
+            }
+            if (tempFile.renameTo(indexFile)) {
+                dirty = false
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to save the media app catalog", e)
+            tempFile.delete()
+        }
+    }
+
+    private fun loadedEntries(): HashMap<String, Entry> {
+        entries?.let { return it }
+        val loaded = HashMap<String, Entry>()
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(indexFile))).use { input ->
+                if (input.readInt() == FORMAT_VERSION) {
+                    repeat(input.readInt()) {
+                        val entry = Entry(input.readUTF(), input.readUTF(), input.readLong(),
+                                input.readLong(), input.readInt())
+                        loaded[entry.key] = entry
+                    }
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            // Nothing cached yet.
+        } catch (e: IOException) {
+            Log.w(TAG, "Discarding unreadable media app catalog", e)
+            loaded.clear()
+        }
+        entries = loaded
+        return loaded
+    }
+
+    private fun writeBitmap(bitmap: Bitmap, file: File): Boolean {
+        val tempFile = File(directory, file.name + TEMP_SUFFIX)
+        return try {
+            FileOutputStream(tempFile).use {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, it)
+            }
+            tempFile.renameTo(file)
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to cache app image", e)
+            tempFile.delete()
+            false
+        }
+    }
+
+    /**
+     * Returns [FLAG_BANNER] or [FLAG_NO_BANNER] if the banner of [details] was looked up, or 0
+     * if it wasn't.
+     */
+    private fun bannerFlags(details: MediaAppDetails) = when {
+        details.loadedBanner != null -> FLAG_BANNER
+        details.isBannerLoaded -> FLAG_NO_BANNER
+        else -> 0
+    }
+
+    private fun deleteFiles(key: String) {
+        iconFile(key).delete()
+        bannerFile(key).delete()
+    }
+
+    private fun keyOf(serviceInfo: ServiceInfo) = "${serviceInfo.packageName}/${serviceInfo.name}"
+
+    private fun fileName(key: String) =
+            java.lang.Long.toHexString(BinarySnapshotFormat.fingerprint(key))
+
+    private fun iconFile(key: String) = File(directory, fileName(key) + ICON_SUFFIX)
+
+    private fun bannerFile(key: String) = File(directory, fileName(key) + BANNER_SUFFIX)
+
+    companion object {
+        private const val TAG = "MediaAppCatalog"
+        private const val DIRECTORY = "media_app_catalog"
+        private const val INDEX_FILE = "index"
+        private const val ICON_SUFFIX = ".icon.png"
+        private const val BANNER_SUFFIX = ".banner.png"
+        private const val TEMP_SUFFIX = ".tmp"
+        private const val FORMAT_VERSION = 1
+
+        private const val FLAG_BANNER = 1
+        private const val FLAG_AUTO = 1 shl 1
+        private const val FLAG_AUTOMOTIVE = 1 shl 2
+        // The banner was looked up and the app has none
+        private const val FLAG_NO_BANNER = 1 shl 3
+
+        private var instance: MediaAppCatalog? = null
+
+        /**
+         * Returns the catalog shared by the whole app. The first call starts listening for
+         * package changes, so must be made on the main thread.
+         */
+        @JvmStatic
+        fun get(context: Context): MediaAppCatalog {
+            instance?.let { return it }
+            val appContext = context.applicationContext
+            val catalog = MediaAppCatalog(appContext)
+            val filter = IntentFilter().apply {
+                addAction(Intent.ACTION_PACKAGE_ADDED)
+                addAction(Intent.ACTION_PACKAGE_REPLACED)
+                addAction(Intent.ACTION_PACKAGE_CHANGED)
+                addAction(Intent.ACTION_PACKAGE_REMOVED)
+                addDataScheme("package")
+            }
+            appContext.registerReceiver(object : BroadcastReceiver() {
+                override fun onReceive(context: Context, intent: Intent) {
+                    intent.data?.schemeSpecificPart?.let {
+                        catalog.invalidate(it)
+                        BitmapUtils.evictIcons(it)
+                    }
+                }
+            }, filter)
+            instance = catalog
+            return catalog
+        }
+    }
+}
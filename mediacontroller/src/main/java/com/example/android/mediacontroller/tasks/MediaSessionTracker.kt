@@ -0,0 +1,117 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller.tasks
+
+import android.annotation.TargetApi
+import android.content.ComponentName
+import android.content.Context
+import android.media.session.MediaController
+import android.media.session.MediaSession
+import android.media.session.MediaSessionManager
+import android.os.Build
+import android.util.Log
+import com.example.android.mediacontroller.MediaAppDetails
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+
+/**
+ * Keeps the list of media apps with active sessions up to date while started.
+ *
+ * Sessions are tracked by their token. When the active sessions change, details are only loaded
+ * for the sessions that weren't active before, and the details of the other sessions are reused,
+ * so a session starting or stopping doesn't reload the icon and package metadata of every app.
+ * The callback is called on the main thread with the apps in the order of their sessions.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class MediaSessionTracker constructor(
+        private val mediaSessionManager: MediaSessionManager,
+        private val listenerComponent: ComponentName,
+        context: Context,
+        private val callback: FindMediaAppsTask.AppListUpdatedCallback
+) {
+    private val context = context.applicationContext
+    private val packageManager = context.packageManager
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+
+    // Details of the sessions that were active at the last update
+    private val sessions = HashMap<MediaSession.Token, MediaAppDetails>()
+    private var update: Job? = null
+
+    private val sessionsChangedListener =
+            MediaSessionManager.OnActiveSessionsChangedListener { controllers ->
+                update?.cancel()
+                update = scope.launch { onSessionsChanged(controllers ?: emptyList()) }
+            }
+
+    /**
+     * Starts listening for session changes, and loads the sessions that are active now.
+     */
+    fun start() {
+        mediaSessionManager.addOnActiveSessionsChangedListener(
+                sessionsChangedListener, listenerComponent)
+        update?.cancel()
+        update = scope.launch {
+            val controllers = withContext(Dispatchers.IO) {
+                mediaSessionManager.getActiveSessions(listenerComponent)
+            }
+            onSessionsChanged(controllers)
+        }
+    }
+
+    /**
+     * Stops listening for session changes. The details already loaded are kept for the next
+     * [start].
+     */
+    fun stop() {
+        mediaSessionManager.removeOnActiveSessionsChangedListener(sessionsChangedListener)
+        update?.cancel()
+        update = null
+    }
+
+    private suspend fun onSessionsChanged(controllers: List<MediaController>) {
+        val added = controllers.filter { it.sessionToken !in sessions }
+        if (added.isNotEmpty()) {
+            val loaded = withContext(Dispatchers.IO) {
+                added.mapNotNull { controller ->
+                    load(controller)?.let { controller.sessionToken to it }
+                }
+            }
+            sessions.putAll(loaded)
+        }
+
+        val activeTokens = controllers.mapTo(HashSet()) { it.sessionToken }
+        sessions.keys.retainAll(activeTokens)
+        callback.onAppListUpdated(controllers.mapNotNull { sessions[it.sessionToken] })
+    }
+
+    private fun load(controller: MediaController): MediaAppDetails? {
+        return try {
+            MediaAppControllerUtils.getMediaAppFromController(controller, packageManager)
+                    ?.also { it.getIcon(context) }
+        } catch (e: RuntimeException) {
+            Log.e(TAG, "Unable to load media app details", e)
+            null
+        }
+    }
+
+    companion object {
+        private const val TAG = "MediaSessionTracker"
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.support.v4.media.MediaBrowserCompat
+import android.support.v4.media.MediaBrowserCompat.MediaItem
+
+/**
+ * Browse tree shared by the browse test steps, so that a suite only crawls the tree once.
+ *
+ * Outside of a session every walk crawls the tree afresh. Between [startSession] and
+ * [endSession], the first walk that runs to completion is kept and later walks replay it
+ * without any IPC. A walk that is stopped early or cancelled is never kept.
+ *
+ * @param pageSize Loads children this many at a time, or all at once if it is
+ * [BrowseTreeCrawler.NO_PAGING].
+ */
+class BrowseTreeCache(val browser: MediaBrowserCompat,
+                      private val pageSize: Int = BrowseTreeCrawler.NO_PAGING) {
+
+    /**
+     * A complete crawl of the tree.
+     *
+     * @param nodes Every node in DFS preorder.
+     * @param duplicateCount Number of browsable nodes whose subtree was already crawled.
+     * @param loadStats How long the crawl's loads took.
+     */
+    class Tree(val nodes: List<BrowseTreeCrawler.Node>,
+               val duplicateCount: Int,
+               val loadStats: BrowseLoadStats)
+
+    /**
+     * What a single walk saw.
+     *
+     * @param complete False if the visitor stopped the walk.
+     * @param loadStats How long the loads of the crawl behind this walk took. A walk that
+     * replayed the cached tree reports the stats of the crawl that built it.
+     */
+    class Walk(val complete: Boolean,
+               val cycles: List<BrowseTreeCrawler.Node>,
+               val duplicateCount: Int,
+               val loadStats: BrowseLoadStats)
+
+    @Volatile
+    private var tree: Tree? = null
+
+    @Volatile
+    private var retain = false
+
+    fun startSession() {
+        tree = null
+        retain = true
+    }
+
+    fun endSession() {
+        retain = false
+        tree = null
+    }
+
+    /**
+     * Calls [visitor] with every node in DFS preorder, until it returns false.
+     */
+    suspend fun walk(visitor: (BrowseTreeCrawler.Node) -> Boolean): Walk {
+        tree?.let { return replay(it, visitor) }
+
+        val crawler = newCrawler()
+        val nodes = ArrayList<BrowseTreeCrawler.Node>()
+        val cycles = ArrayList<BrowseTreeCrawler.Node>()
+        var complete = true
+        crawler.crawl(browser.root, crawler.loadChildren(browser.root)) { node ->
+            nodes.add(node)
+            if (node.finding == BrowseTreeCrawler.Finding.CYCLE) {
+                cycles.add(node)
+            }
+            if (!visitor(node)) {
+                complete = false
+                crawler.stop()
+            }
+        }
+        if (complete && retain) {
+            tree = Tree(nodes, crawler.duplicateCount, crawler.loadStats)
+        }
+        return Walk(complete, cycles, crawler.duplicateCount, crawler.loadStats)
+    }
+
+    /**
+     * Returns the children of the browser's root, loading only them if the tree isn't cached.
+     */
+    suspend fun rootItems(): List<MediaItem> {
+        tree?.let { cached ->
+            return cached.nodes.filter { it.depth == 1 }.map { it.item }
+        }
+        return newCrawler().loadChildren(browser.root)
+    }
+
+    private fun newCrawler() = BrowseTreeCrawler(browser, pageSize = pageSize)
+
+    private fun replay(tree: Tree, visitor: (BrowseTreeCrawler.Node) -> Boolean): Walk {
+        val cycles = ArrayList<BrowseTreeCrawler.Node>()
+        var complete = true
+        for (node in tree.nodes) {
+            if (node.finding == BrowseTreeCrawler.Finding.CYCLE) {
+                cycles.add(node)
+            }
+            if (!visitor(node)) {
+                complete = false
+                break
+            }
+        }
+        return Walk(complete, cycles, tree.duplicateCount, tree.loadStats)
+    }
+}
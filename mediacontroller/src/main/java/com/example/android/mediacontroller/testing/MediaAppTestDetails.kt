@@ -32,12 +32,14 @@ import android.util.TypedValue
 import androidx.annotation.RequiresApi
 import androidx.core.content.res.ResourcesCompat
 import com.example.android.mediacontroller.Test.Companion.androidResources
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.android.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
 import java.text.DateFormat
 import java.util.Date
-import java.util.Stack
-import java.util.concurrent.CompletableFuture
-import java.util.concurrent.TimeUnit
-import java.util.concurrent.TimeoutException
 import kotlin.collections.ArrayList
 import kotlin.math.abs
 
@@ -64,6 +66,10 @@ class Test(
     val extras = Bundle()
     lateinit var handler: Handler // TODO(nevmital): might not need to hold reference
 
+    // Runs the work of steps that returned STEP_PENDING, on this test's thread
+    private lateinit var scope: CoroutineScope
+    private var stepPending = false
+
     fun logTestUpdate(logTag: String, message: String) {
         val date = DateFormat
                 .getDateTimeInstance(DateFormat.SHORT, DateFormat.LONG)
@@ -116,9 +122,23 @@ class Test(
                 // Process received message
                 val status = when (msg.what) {
                     STATE_CHANGED, METADATA_CHANGED, RUN_STEP -> {
+                        if (stepPending) {
+                            // The step reports back with STEP_COMPLETED once it is done
+                            return
+                        }
                         extras.putInt(Test.TRIGGER_KEY, msg.what)
                         currentStep.execute(state, metadata)
                     }
+                    STEP_COMPLETED -> {
+                        if (!stepPending) {
+                            return
+                        }
+                        stepPending = false
+                        // The rest of the test gets the usual timeout again
+                        removeMessages(TIMED_OUT)
+                        sendMessageDelayed(Message.obtain(this, TIMED_OUT), TEST_TIMEOUT)
+                        msg.obj as TestStepStatus
+                    }
                     TIMED_OUT -> {
                         logTestUpdate(name, androidResources.getString(R.string.test_fail_timeout))
                         TestStepStatus.STEP_FAIL
@@ -164,6 +184,22 @@ class Test(
                                 )
                         )
                     }
+                    TestStepStatus.STEP_PENDING -> {
+                        stepPending = true
+                        logTestUpdate(
+                                currentStep.logTag,
+                                androidResources.getString(
+                                        R.string.test_step_pending_state,
+                                        playbackStateToName(state.state)
+                                )
+                        )
+                        // Pending steps wait on IPC, so they get their own, longer timeout
+                        removeMessages(TIMED_OUT)
+                        sendMessageDelayed(
+                                Message.obtain(this, TIMED_OUT),
+                                currentStep.pendingTimeout
+                        )
+                    }
                     TestStepStatus.STEP_FAIL -> {
                         if (msg.what != TIMED_OUT) {
                             logTestUpdate(
@@ -185,6 +221,8 @@ class Test(
             }
         }
 
+        scope = CoroutineScope(SupervisorJob() + handler.asCoroutineDispatcher())
+
         callback = object : MediaControllerCompat.Callback() {
             
             override fun onPlaybackStateChanged(state: PlaybackStateCompat?) {
@@ -202,8 +240,32 @@ class Test(
         handler.sendMessageDelayed(Message.obtain(handler, TIMED_OUT), TEST_TIMEOUT)
     }
 
+    /**
+     * Runs [block] on this test's thread without blocking it, for steps that have to wait on
+     * IPC. Returns STEP_PENDING; the status returned by [block] is then handled like that of any
+     * other step. [block] is cancelled if the test ends first.
+     */
+    fun launchStep(step: TestStep, block: suspend () -> TestStepStatus): TestStepStatus {
+        scope.launch {
+            val status = try {
+                block()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                logTestUpdate(step.logTag,
+                        androidResources.getString(R.string.test_step_error, e.toString()))
+                TestStepStatus.STEP_FAIL
+            }
+            Message.obtain(handler, STEP_COMPLETED, status).sendToTarget()
+        }
+        return TestStepStatus.STEP_PENDING
+    }
+
     fun endTest() {
         mediaController.unregisterCallback(callback)
+        if (this::scope.isInitialized) {
+            scope.cancel()
+        }
         currentTest = null
         quit()
     }
@@ -213,8 +275,10 @@ class Test(
         const val RUN_STEP = 1
         const val STATE_CHANGED = 2
         const val METADATA_CHANGED = 3
+        const val STEP_COMPLETED = 4
 
         const val TEST_TIMEOUT = 5000L // 5 seconds
+        const val PENDING_TIMEOUT = 300000L // 5 minutes
         const val POSITION_LENIENCY = 200L // 0.2 seconds
 
         const val TRIGGER_KEY = "STEP_TRIGGER"
@@ -249,8 +313,12 @@ enum class TestResult {
     NONE, PASS, FAIL, OPTIONAL_FAIL, CONFIG_REQUIRED
 }
 
+/**
+ * STEP_PENDING means the step is still working, see [Test.launchStep]. It is not run again for
+ * state or metadata changes until it completes.
+ */
 enum class TestStepStatus {
-    STEP_PASS, STEP_CONTINUE, STEP_FAIL
+    STEP_PASS, STEP_CONTINUE, STEP_FAIL, STEP_PENDING
 }
 
 /**
@@ -282,6 +350,13 @@ val transitionStates = intArrayOf(
 interface TestStep {
     val test: Test
     val logTag: String
+
+    /**
+     * How long the test waits for this step after it returns STEP_PENDING.
+     */
+    val pendingTimeout: Long
+        get() = Test.PENDING_TIMEOUT
+
     fun execute(
             currState: PlaybackStateCompat?,
             currMetadata: MediaMetadataCompat?
@@ -1125,72 +1200,65 @@ class CheckPlaybackState(override val test: Test) : TestStep {
     }
 }
 
+/**
+ * Logs the browsable nodes a walk did not expand, and how long the app took to load the tree.
+ * Cycles are logged one by one, duplicate subtrees only as a count since many apps list the same
+ * album or playlist in several places.
+ */
+private fun TestStep.logWalkFindings(walk: BrowseTreeCache.Walk) {
+    if (walk.loadStats.loadCount > 0) {
+        test.logTestUpdate(logTag, androidResources.getString(
+                R.string.test_browse_load_stats, walk.loadStats.summary().joinToString("\n")))
+    }
+    for (node in walk.cycles) {
+        test.logTestUpdate(logTag, androidResources.getString(
+                R.string.test_browse_cycle, node.mediaId, node.parentId))
+    }
+    if (walk.duplicateCount > 0) {
+        test.logTestUpdate(logTag, androidResources.getString(
+                R.string.test_browse_duplicates, walk.duplicateCount))
+    }
+}
+
 /**
  * PASS: Maximum depth of the browse tree is at most 3 levels deep.
- * FAIL: Otherwise
+ * FAIL: Otherwise, or if a browsable item is its own ancestor.
  */
 @RequiresApi(Build.VERSION_CODES.N)
 class CheckBrowseDepth(override val test: Test,
-                       val browser: MediaBrowserCompat?) : TestStep {
+                       val browseTree: BrowseTreeCache?) : TestStep {
     override val logTag = "${test.name}.CBD"
-    private val TIMEOUT_SECONDS = 5L
     private val DEPTH_LIMIT = 3
 
-    private val mNodes = Stack<Item>()
-
-    private var maxDepth = 0
-    private var currentDepth = 0
-
-    private var traversalFuture = CompletableFuture<Int>()
-
-    class Item(val key: String, val depth: Int)
-
-    internal var callback: MediaBrowserCompat.SubscriptionCallback = object
-        : MediaBrowserCompat.SubscriptionCallback() {
-        override fun onChildrenLoaded(parentId: String,
-                                      children: List<MediaBrowserCompat.MediaItem>) {
-            children.forEach {
-                if (it.isBrowsable) {
-                    mNodes.push(Item(it.mediaId!!, currentDepth + 1))
-                }
-            }
-
-            if (!mNodes.empty()) {
-                val node = mNodes.pop()
-
-                currentDepth = node.depth
-
-                if (node.depth > maxDepth) {
-                    maxDepth = node.depth
-                }
-
-                traverse(node.key)
-            } else {
-                traversalFuture.complete(maxDepth)
-            }
-        }
-    }
-
     override fun execute(currState: PlaybackStateCompat?,
                          currMetadata: MediaMetadataCompat?
     ): TestStepStatus {
-        browser?.subscribe(browser.root, callback)
-
-        try {
-            if (traversalFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS) > DEPTH_LIMIT) {
-                test.logTestUpdate(logTag, androidResources.getString(R.string.test_tree_depth))
-                return TestStepStatus.STEP_FAIL
-            }
-        } catch (e: TimeoutException) {
+        if (browseTree == null) {
             test.logTestUpdate(logTag, androidResources.getString(R.string.test_fail_timeout))
             return TestStepStatus.STEP_FAIL
         }
 
-        return TestStepStatus.STEP_PASS
-    }
+        return test.launchStep(this) {
+            var maxDepth = 0
+            val walk = browseTree.walk { node ->
+                if (node.item.isBrowsable && node.depth > maxDepth) {
+                    maxDepth = node.depth
+                }
+                true
+            }
+            logWalkFindings(walk)
 
-    fun traverse(key: String) {
-        browser?.subscribe(key, callback)
+            if (walk.cycles.isNotEmpty()) {
+                test.logTestUpdate(logTag, androidResources.getString(
+                        R.string.test_tree_cycle, walk.cycles.first().mediaId))
+                TestStepStatus.STEP_FAIL
+            } else if (maxDepth > DEPTH_LIMIT) {
+                test.logTestUpdate(logTag, androidResources.getString(R.string.test_tree_depth))
+                TestStepStatus.STEP_FAIL
+            } else {
+                TestStepStatus.STEP_PASS
+            }
+        }
     }
 }
 
@@ -1198,80 +1266,131 @@ class CheckBrowseDepth(override val test: Test,
  * PASS: The artwork of each media item must be passed as a local URI and not a bitmap.
  *       The schema of the URI must be either SCHEME_CONTENT or SCHEME_ANDROID_RESOURCE or https.
  * FAIL: Otherwise
+ *
+ * In FAIL_FAST mode the walk stops at the first bad item, cancelling any subscriptions still in
+ * flight. In FULL_AUDIT mode every bad item is logged, in batches, along with totals.
  */
 @RequiresApi(Build.VERSION_CODES.N)
 class CheckMediaArtwork(override val test: Test,
-                        val browser: MediaBrowserCompat?) : TestStep {
+                        val browseTree: BrowseTreeCache?,
+                        private val mode: Mode = Mode.FAIL_FAST) : TestStep {
     override val logTag = "${test.name}.CMA"
-    private val TIMEOUT_SECONDS = 5L
-    private val FAIL_ICONBITMAP_NON_NULL = "FAIL_ICONBITMAP_NON_NULL"
-    private val FAIL_INVALID_URI_SCHEMA = "FAIL_INVALID_URI_SCHEMA"
-    private val PASS = "PASS"
+    private val AUDIT_BATCH_SIZE = 200
+    private val BITMAP = "bitmap"
+    private val NO_URI = "none"
 
-    private val mNodes = Stack<Item>()
+    enum class Mode {
+        FAIL_FAST, FULL_AUDIT
+    }
 
-    private var future = CompletableFuture<String>()
+    override fun execute(currState: PlaybackStateCompat?,
+                         currMetadata: MediaMetadataCompat?
+    ): TestStepStatus {
+        if (browseTree == null) {
+            test.logTestUpdate(logTag, androidResources.getString(R.string.test_fail_timeout))
+            return TestStepStatus.STEP_FAIL
+        }
 
-    class Item(val key: String)
+        return test.launchStep(this) {
+            val audit = Audit()
+            val walk = browseTree.walk(audit::visit)
+            logWalkFindings(walk)
+            audit.finish()
+        }
+    }
 
-    private var callback: MediaBrowserCompat.SubscriptionCallback = object
-        : MediaBrowserCompat.SubscriptionCallback() {
-        override fun onChildrenLoaded(parentId: String,
-                                      children: List<MediaBrowserCompat.MediaItem>) {
-            children.forEach {
-                if (it.isBrowsable) {
-                    mNodes.push(Item(it.mediaId!!))
-                }
-                if (it.isPlayable) {
-                    // iconBitmap should be empty
-                    if (it.description.iconBitmap != null) {
-                        future.complete(FAIL_ICONBITMAP_NON_NULL)
-                    }
+    /**
+     * Returns the string resource describing what is wrong with the artwork of [item], or 0 if
+     * nothing is.
+     */
+    private fun checkArtwork(item: MediaBrowserCompat.MediaItem): Int {
+        // iconBitmap should be empty
+        if (item.description.iconBitmap != null) {
+            return R.string.test_artwork_type_non_null_icon
+        }
 
-                    // URI schema must be content or android resource or https
-                    if (it.description.iconUri?.scheme != ContentResolver.SCHEME_ANDROID_RESOURCE &&
-                        it.description.iconUri?.scheme != ContentResolver.SCHEME_CONTENT &&
-                        it.description.iconUri?.scheme != "https") {
-                        future.complete(FAIL_INVALID_URI_SCHEMA)
-                    }
-                }
+        // URI schema must be content or android resource or https
+        val scheme = item.description.iconUri?.scheme
+        if (scheme != ContentResolver.SCHEME_ANDROID_RESOURCE &&
+            scheme != ContentResolver.SCHEME_CONTENT &&
+            scheme != "https") {
+            return R.string.test_artwork_type_invalid_schema
+        }
+        return 0
+    }
+
+    private inner class Audit {
+        private var playableCount = 0
+        private var failureCount = 0
+        private var bitmapCount = 0
+        private val schemaCounts = HashMap<String, Int>()
+        private var firstFailure = 0
+
+        private val batch = StringBuilder()
+        private var batchSize = 0
+
+        /**
+         * Returns false to stop the walk.
+         */
+        fun visit(node: BrowseTreeCrawler.Node): Boolean {
+            if (!node.item.isPlayable) {
+                return true
+            }
+            playableCount++
+            val failure = checkArtwork(node.item)
+            if (failure == 0) {
+                return true
+            }
+            failureCount++
+            if (firstFailure == 0) {
+                firstFailure = failure
+            }
+            if (mode == Mode.FAIL_FAST) {
+                return false
             }
 
-            if (!mNodes.empty()) {
-                val node = mNodes.pop()
-                traverse(node.key)
+            val reason = if (failure == R.string.test_artwork_type_non_null_icon) {
+                bitmapCount++
+                BITMAP
             } else {
-                future.complete(PASS)
+                val schema = node.item.description.iconUri?.scheme ?: NO_URI
+                schemaCounts[schema] = (schemaCounts[schema] ?: 0) + 1
+                schema
+            }
+            batch.append(node.mediaId).append(", ").append(reason).append('\n')
+            if (++batchSize >= AUDIT_BATCH_SIZE) {
+                flush()
             }
+            return true
         }
-    }
-
-    override fun execute(currState: PlaybackStateCompat?,
-                         currMetadata: MediaMetadataCompat?
-    ): TestStepStatus {
-        browser?.subscribe(browser.root, callback)
 
-        try {
-            if (future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).equals(FAIL_ICONBITMAP_NON_NULL)) {
-                test.logTestUpdate(logTag,
-                        androidResources.getString(R.string.test_artwork_type_non_null_icon))
-                return TestStepStatus.STEP_FAIL
+        fun finish(): TestStepStatus {
+            if (mode == Mode.FULL_AUDIT) {
+                flush()
+                test.logTestUpdate(logTag, androidResources.getString(
+                        R.string.test_artwork_audit_summary,
+                        failureCount,
+                        playableCount,
+                        bitmapCount,
+                        schemaCounts.entries.joinToString { "${it.key}: ${it.value}" }
+                ))
             }
-            if (future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).equals(FAIL_INVALID_URI_SCHEMA)) {
-                test.logTestUpdate(logTag,
-                        androidResources.getString(R.string.test_artwork_type_invalid_schema))
+            if (firstFailure != 0) {
+                test.logTestUpdate(logTag, androidResources.getString(firstFailure))
                 return TestStepStatus.STEP_FAIL
             }
-        } catch (e: TimeoutException) {
-            test.logTestUpdate(logTag, androidResources.getString(R.string.test_fail_timeout))
-            return TestStepStatus.STEP_FAIL
+            return TestStepStatus.STEP_PASS
         }
 
-        return TestStepStatus.STEP_PASS
-    }
-
-    fun traverse(key: String) {
-        browser?.subscribe(key, callback)
+        private fun flush() {
+            if (batchSize == 0) {
+                return
+            }
+            test.logTestUpdate(logTag, androidResources.getString(
+                    R.string.test_artwork_offenders, batchSize, batch))
+            batch.setLength(0)
+            batchSize = 0
+        }
     }
 }
 
@@ -1282,53 +1401,34 @@ class CheckMediaArtwork(override val test: Test,
  */
 @RequiresApi(Build.VERSION_CODES.N)
 class CheckBrowseStructure(override val test: Test,
-                           val browser: MediaBrowserCompat?) : TestStep {
+                           val browseTree: BrowseTreeCache?) : TestStep {
     override val logTag = "${test.name}.CBS"
-    private val TIMEOUT_SECONDS = 5L
     private val MAX_BROWSABLE_ITEMS = 4
 
-    private var rootFuture = CompletableFuture<Result>()
-
-    class Result(val type: String, val size: Int)
-
-    internal var callback: MediaBrowserCompat.SubscriptionCallback = object
-        : MediaBrowserCompat.SubscriptionCallback() {
-        override fun onChildrenLoaded(parentId: String,
-                                      children: List<MediaBrowserCompat.MediaItem>) {
-            var browsable = children.all { it.isBrowsable }
-            var playable = children.all { it.isPlayable }
-
-            if (browsable && !playable) {
-                rootFuture.complete(Result("browsable", children.size))
-            } else if (playable && !browsable) {
-                rootFuture.complete(Result("playable", children.size))
-            } else {
-                rootFuture.complete(Result("", 0))
-            }
-        }
-    }
-
     override fun execute(currState: PlaybackStateCompat?,
                          currMetadata: MediaMetadataCompat?
     ): TestStepStatus {
-        browser?.subscribe(browser.root, callback)
-
-        try {
-            val result = rootFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
-            if (result.type != "browsable" && result.type != "playable") {
-                test.logTestUpdate(logTag, androidResources.getString(R.string.test_root_items_type))
-                return TestStepStatus.STEP_FAIL
-            }
-            if (result.type == "browsable" && result.size > MAX_BROWSABLE_ITEMS) {
-                test.logTestUpdate(logTag, androidResources.getString(R.string.test_browsable_items))
-                return TestStepStatus.STEP_FAIL
-            }
-        } catch (e: TimeoutException) {
+        if (browseTree == null) {
             test.logTestUpdate(logTag, androidResources.getString(R.string.test_fail_timeout))
             return TestStepStatus.STEP_FAIL
         }
 
-        return TestStepStatus.STEP_PASS
+        return test.launchStep(this) {
+            val children = browseTree.rootItems()
+            val browsable = children.all { it.isBrowsable }
+            val playable = children.all { it.isPlayable }
+            if (browsable == playable) {
+                test.logTestUpdate(logTag,
+                        androidResources.getString(R.string.test_root_items_type))
+                TestStepStatus.STEP_FAIL
+            } else if (browsable && children.size > MAX_BROWSABLE_ITEMS) {
+                test.logTestUpdate(logTag,
+                        androidResources.getString(R.string.test_browsable_items))
+                TestStepStatus.STEP_FAIL
+            } else {
+                TestStepStatus.STEP_PASS
+            }
+        }
     }
 }
 
@@ -243,7 +243,7 @@ class MediaAppTestService : Service() {
             || (appDetails != null && appPackageName != appDetails.packageName)) {
             val serviceInfo = MediaAppDetails.findServiceInfo(appPackageName, packageManager)
             if (serviceInfo != null) {
-                mediaAppDetails = MediaAppDetails(serviceInfo, packageManager, resources)
+                mediaAppDetails = MediaAppDetails(serviceInfo, packageManager)
             }
         } else {
             Toast.makeText(
@@ -17,7 +17,9 @@ package com.example.android.mediacontroller.testing
 
 import android.os.Handler
 import android.os.Looper
+import android.os.SystemClock
 import android.util.Log
+import com.example.android.mediacontroller.BrowseTreeCache
 import com.example.android.mediacontroller.Test
 import com.example.android.mediacontroller.TestOptionDetails
 import com.example.android.mediacontroller.TestResult
@@ -26,12 +28,14 @@ import java.util.concurrent.Semaphore
 import kotlin.concurrent.thread
 
 class MediaAppTestSuite(val testSuiteName: String, val testSuiteDescription: String, private val testList:
-Array<TestOptionDetails>) {
+Array<TestOptionDetails>, private val browseTree: BrowseTreeCache? = null,
+                        private val settleScheduler: SettleScheduler? = null) {
 
     private val TAG = "MediaAppTestSuite"
 
     /**
-     * Sleep time after a single test was run. Assures that all steps are flushed out.
+     * Sleep time after a single test was run, if there is no [settleScheduler] to tell when the
+     * controller settled. Assures that all steps are flushed out.
      */
     private val SLEEP_TIME = 1000L
 
@@ -65,6 +69,12 @@ Array<TestOptionDetails>) {
      */
     private lateinit var suiteThread: Thread
 
+    /**
+     * When the running test started, to time it.
+     */
+    @Volatile
+    private var testStartTime = 0L
+
     init {
         // Resets all of the test case results and gets config data.
         for (i in testList.indices) {
@@ -109,6 +119,9 @@ Array<TestOptionDetails>) {
                  onFinishTestSuite: (idToResultMap: HashMap<Int, TestCaseResults>) -> Unit) {
         resetTests()
         suiteRunning = true
+        // Every browse test in the run shares a single crawl of the tree.
+        browseTree?.startSession()
+        settleScheduler?.start(mHandler)
         suiteThread = thread(start = true) {
             Looper.prepare()
             try {
@@ -117,9 +130,6 @@ Array<TestOptionDetails>) {
                         resetSingleResults()
                         onStartTest()
 
-                        // Flush out any residual media control commands from previous test
-                        Thread.sleep(SLEEP_TIME)
-
                         // In the event that a query is not specified, don't run the test.
                         var query = MediaAppTestingActivity.NO_CONFIG
                         query = queries[test.name] ?: MediaAppTestingActivity.NO_CONFIG
@@ -131,14 +141,28 @@ Array<TestOptionDetails>) {
                         if (query == MediaAppTestingActivity.NO_CONFIG) {
                             query = ""
                         }
+
+                        // Wait for the previous test to finish, then flush out any residual
+                        // media control commands from it. The semaphore is only held by the
+                        // test that is running.
+                        testSemaphore.acquire()
+                        testSemaphore.release()
+                        val settleTime = settleScheduler?.awaitSettled()
+                                ?: SLEEP_TIME.also { Thread.sleep(it) }
+                        iDToResultsMap[test.id]!!.settleTimesMs.add(settleTime)
+
                         testSemaphore.acquire()
+                        testStartTime = SystemClock.elapsedRealtime()
                         test.runTest(query, callback, test.id)
                     }
                 }
             } catch(e: InterruptedException){
                 Thread.currentThread().interrupt()
+            } finally {
+                settleScheduler?.stop()
             }
             suiteRunning = false
+            browseTree?.endSession()
             mHandler.post {
                 onFinishTestSuite(iDToResultsMap)
             }
@@ -154,8 +178,10 @@ Array<TestOptionDetails>) {
      */
     private val callback = { result: TestResult, testId: Int, testLogs: ArrayList<String> ->
         val testCaseResults = iDToResultsMap[testId]!!
-        Log.d(TAG, "Finished Test: $testId with result $result")
+        val runTime = SystemClock.elapsedRealtime() - testStartTime
+        Log.d(TAG, "Finished Test: $testId with result $result in $runTime ms")
         testCaseResults.totalRuns += 1
+        testCaseResults.runTimesMs.add(runTime)
         when (result) {
             TestResult.PASS -> {
                 testCaseResults.numPassing += 1
@@ -169,6 +195,7 @@ Array<TestOptionDetails>) {
             }
             TestResult.CONFIG_REQUIRED -> {
                 testCaseResults.totalRuns -= 1
+                testCaseResults.runTimesMs.removeAt(testCaseResults.runTimesMs.lastIndex)
             }
             else -> {
                 Log.d(TAG, "There was an error with $testId return code")
@@ -186,6 +213,7 @@ Array<TestOptionDetails>) {
         }
         suiteThread.interrupt()
         suiteRunning = false
+        browseTree?.endSession()
         resetTests()
     }
 
@@ -218,5 +246,8 @@ Array<TestOptionDetails>) {
         var numPassing = 0
         var passingLogs = arrayListOf<ArrayList<String>>()
         var failingLogs = arrayListOf<ArrayList<String>>()
+        // How long each run waited for the controller to settle first, and then took to run
+        var settleTimesMs = arrayListOf<Long>()
+        var runTimesMs = arrayListOf<Long>()
     }
 }
\ No newline at end of file
@@ -172,7 +172,7 @@ class MediaAppTestingActivity : AppCompatActivity() {
                 } else {
                     showError(getString(R.string.connection_failed_hint_setup, mediaAppDetails.appName))
                 }
-                setupToolbar(mediaAppDetails.appName, mediaAppDetails.icon)
+                setupToolbar(mediaAppDetails.appName, mediaAppDetails.getIcon(this))
                 binding.viewPager.visibility = View.VISIBLE
             } else {
                 binding.viewPager.visibility = View.GONE
@@ -200,7 +200,8 @@ class MediaAppTestingActivity : AppCompatActivity() {
                     }
                     else -> showError(getString(R.string.connection_failed_hint_setup, mediaAppDetails.appName))
                 }
-                setupToolbar(mediaAppDetails.appName, mediaAppDetails.icon)
+                setupToolbar(mediaAppDetails.appName,
+                        mediaAppDetails.getIcon(this@MediaAppTestingActivity))
                 binding.viewPager.visibility = View.VISIBLE
             } else {
                 binding.viewPager.visibility = View.GONE
@@ -630,6 +631,29 @@ class MediaAppTestingActivity : AppCompatActivity() {
                     R.string.queue_item_media_uri,
                     description.mediaUri.toString()
                 )
+
+            val icon = holder.linearLayout.queueItemIcon
+            val artworkLoader = ArtworkLoader.get(icon.context)
+            when {
+                description.iconBitmap != null -> {
+                    artworkLoader.cancel(icon)
+                    icon.setImageBitmap(description.iconBitmap)
+                    icon.visibility = View.VISIBLE
+                }
+                description.iconUri != null -> {
+                    artworkLoader.load(icon, description.iconUri)
+                    icon.visibility = View.VISIBLE
+                }
+                else -> {
+                    artworkLoader.cancel(icon)
+                    icon.visibility = View.GONE
+                }
+            }
+        }
+
+        override fun onViewRecycled(holder: ViewHolder) {
+            val icon = holder.linearLayout.queueItemIcon
+            ArtworkLoader.get(icon.context).cancel(icon)
         }
 
         override fun getItemCount() = items.size
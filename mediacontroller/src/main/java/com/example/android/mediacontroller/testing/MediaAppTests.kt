@@ -193,24 +193,24 @@ fun runInitialPlaybackStateTest(
 fun runBrowseTreeDepthTest(
         testId: Int,
         controller: MediaControllerCompat,
-        browser: MediaBrowserCompat?,
+        browseTree: BrowseTreeCache?,
         callback: (result: TestResult, testId: Int, testLogs: ArrayList<String>) -> Unit
 ) = Test(Test.androidResources
         .getString(R.string.browse_tree_depth_test_logs_title), TestType.OPTIONAL, controller)
         .apply {
-            addStep(CheckBrowseDepth(this, browser))
+            addStep(CheckBrowseDepth(this, browseTree))
         }.runTest(testId, callback)
 
 @RequiresApi(Build.VERSION_CODES.N)
 fun runBrowseTreeStructureTest(
         testId: Int,
         controller: MediaControllerCompat,
-        browser: MediaBrowserCompat?,
+        browseTree: BrowseTreeCache?,
         callback: (result: TestResult, testId: Int, testLogs: ArrayList<String>) -> Unit
 ) = Test(Test.androidResources
         .getString(R.string.browse_tree_structure_test_logs_title), TestType.OPTIONAL, controller)
         .apply {
-            addStep(CheckBrowseStructure(this, browser))
+            addStep(CheckBrowseStructure(this, browseTree))
         }.runTest(testId, callback)
 
 fun runSearchTest(
@@ -239,10 +239,22 @@ fun runContentStyleTest(
 fun runMediaArtworkTest(
         testId: Int,
         controller: MediaControllerCompat,
-        browser: MediaBrowserCompat?,
+        browseTree: BrowseTreeCache?,
         callback: (result: TestResult, testId: Int, testLogs: ArrayList<String>) -> Unit
 ) = Test(Test.androidResources
         .getString(R.string.media_artwork_test_logs_title), TestType.REQUIRED, controller)
         .apply {
-            addStep(CheckMediaArtwork(this, browser))
-        }.runTest(testId, callback)
\ No newline at end of file
+            addStep(CheckMediaArtwork(this, browseTree))
+        }.runTest(testId, callback)
+
+@RequiresApi(Build.VERSION_CODES.N)
+fun runMediaArtworkAuditTest(
+        testId: Int,
+        controller: MediaControllerCompat,
+        browseTree: BrowseTreeCache?,
+        callback: (result: TestResult, testId: Int, testLogs: ArrayList<String>) -> Unit
+) = Test(Test.androidResources
+        .getString(R.string.media_artwork_audit_test_logs_title), TestType.OPTIONAL, controller)
+        .apply {
+            addStep(CheckMediaArtwork(this, browseTree, CheckMediaArtwork.Mode.FULL_AUDIT))
+        }.runTest(testId, callback)
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller.testing
+
+import android.os.Handler
+import android.os.SystemClock
+import android.support.v4.media.MediaMetadataCompat
+import android.support.v4.media.session.MediaControllerCompat
+import android.support.v4.media.session.MediaSessionCompat
+import android.support.v4.media.session.PlaybackStateCompat
+
+/**
+ * Decides when the next test of a suite can start, by waiting for the media controller to
+ * settle after the previous one.
+ *
+ * The controller is settled once none of its state, metadata, queue or mode callbacks have
+ * fired for [quietWindowMs]. Commands left over from the previous test usually settle well
+ * before a fixed delay would have run out, and an app that keeps sending updates is waited on
+ * for no more than [maxSettleMs].
+ */
+class SettleScheduler(
+        private val mediaController: MediaControllerCompat,
+        private val quietWindowMs: Long = DEFAULT_QUIET_WINDOW_MS,
+        private val maxSettleMs: Long = DEFAULT_MAX_SETTLE_MS
+) {
+    @Volatile
+    private var lastEventTime = 0L
+
+    private val controllerCallback = object : MediaControllerCompat.Callback() {
+        override fun onPlaybackStateChanged(state: PlaybackStateCompat?) = onEvent()
+        override fun onMetadataChanged(metadata: MediaMetadataCompat?) = onEvent()
+        override fun onQueueChanged(queue: MutableList<MediaSessionCompat.QueueItem>?) = onEvent()
+        override fun onRepeatModeChanged(repeatMode: Int) = onEvent()
+        override fun onShuffleModeChanged(shuffleMode: Int) = onEvent()
+    }
+
+    /**
+     * Starts watching the controller, with callbacks delivered on [handler].
+     */
+    fun start(handler: Handler) {
+        lastEventTime = SystemClock.elapsedRealtime()
+        mediaController.registerCallback(controllerCallback, handler)
+    }
+
+    fun stop() {
+        mediaController.unregisterCallback(controllerCallback)
+    }
+
+    /**
+     * Blocks until none of the controller's callbacks have fired for [quietWindowMs], or until
+     * the upper bound runs out. Returns right away if the last one is already that old.
+     *
+     * @return The time spent waiting, in milliseconds.
+     */
+    @Throws(InterruptedException::class)
+    fun awaitSettled(): Long {
+        val startTime = SystemClock.elapsedRealtime()
+        val deadline = startTime + maxSettleMs
+        while (true) {
+            val now = SystemClock.elapsedRealtime()
+            val settleTime = lastEventTime + quietWindowMs
+            if (now >= settleTime || now >= deadline) {
+                return now - startTime
+            }
+            Thread.sleep(minOf(settleTime, deadline) - now)
+        }
+    }
+
+    private fun onEvent() {
+        lastEventTime = SystemClock.elapsedRealtime()
+    }
+
+    companion object {
+        const val DEFAULT_QUIET_WINDOW_MS = 250L
+        const val DEFAULT_MAX_SETTLE_MS = 1000L
+    }
+}
@@ -15,6 +15,9 @@ class TestDescriptor {
     fun setupTests(context: Context, mediaController: MediaControllerCompat,
                    mediaAppDetails: MediaAppDetails?, mediaBrowser: MediaBrowserCompat?) {
 
+        // Crawled at most once per suite run and shared by all of the browse tree tests.
+        val browseTree = mediaBrowser?.let { BrowseTreeCache(it) }
+
         /**
          * Tests the play() transport control. The test can start in any state, might enter a
          * transition state, but must eventually end in STATE_PLAYING. The test will fail for
@@ -222,7 +225,7 @@ class TestDescriptor {
         ) { _, callback, testId ->
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
                 runBrowseTreeDepthTest(
-                    testId, mediaController, mediaBrowser, callback
+                    testId, mediaController, browseTree, callback
                 )
             } else {
                 Toast.makeText(
@@ -244,7 +247,7 @@ class TestDescriptor {
         ) { _, callback, testId ->
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
                 runMediaArtworkTest(
-                    testId, mediaController, mediaBrowser, callback
+                    testId, mediaController, browseTree, callback
                 )
             } else {
                 Toast.makeText(
@@ -256,6 +259,28 @@ class TestDescriptor {
             }
         }
 
+        val mediaArtworkAuditTest = TestOptionDetails(
+            20,
+            context.getString(R.string.media_artwork_audit_test_title),
+            context.getString(R.string.media_artwork_audit_test_desc),
+            TestResult.NONE,
+            Test.NO_LOGS,
+            false
+        ) { _, callback, testId ->
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                runMediaArtworkAuditTest(
+                    testId, mediaController, browseTree, callback
+                )
+            } else {
+                Toast.makeText(
+                    context,
+                    context.getString(R.string.test_error_minsdk),
+                    Toast.LENGTH_SHORT
+                )
+                    .show()
+            }
+        }
+
         val contentStyleTest = TestOptionDetails(
             12,
             context.getString(R.string.content_style_test_title),
@@ -321,7 +346,7 @@ class TestDescriptor {
         ) { _, callback, testId ->
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
                 runBrowseTreeStructureTest(
-                    testId, mediaController, mediaBrowser, callback
+                    testId, mediaController, browseTree, callback
                 )
             } else {
                 Toast.makeText(
@@ -388,6 +413,7 @@ class TestDescriptor {
         val commonTests = arrayOf(
             browseTreeDepthTest,
             mediaArtworkTest,
+            mediaArtworkAuditTest,
             //TODO FIX contentStyleTest,
             customActionIconTypeTest,
             //TODO: FIX supportsSearchTest,
@@ -404,18 +430,21 @@ class TestDescriptor {
         var testList = basicTests
         var testSuites: ArrayList<MediaAppTestSuite> = ArrayList()
 
-        val basicTestSuite = MediaAppTestSuite("Basic Tests", "Basic media tests.", basicTests)
+        val basicTestSuite = MediaAppTestSuite("Basic Tests", "Basic media tests.", basicTests,
+                settleScheduler = SettleScheduler(mediaController))
         testSuites.add(basicTestSuite)
         if (mediaAppDetails?.supportsAuto == true || mediaAppDetails?.supportsAutomotive == true) {
             testList += commonTests
             val autoTestSuite = MediaAppTestSuite("Auto Tests",
-                "Includes support for android auto tests.", testList)
+                "Includes support for android auto tests.", testList, browseTree,
+                SettleScheduler(mediaController))
             testSuites.add(autoTestSuite)
         }
         if (mediaAppDetails?.supportsAutomotive == true) {
             testList += automotiveTests
             val automotiveTestSuite = MediaAppTestSuite("Automotive Tests",
-                "Includes support for Android automotive tests.", testList)
+                "Includes support for Android automotive tests.", testList, browseTree,
+                SettleScheduler(mediaController))
             testSuites.add(automotiveTestSuite)
         }
         this.testList = testList.asList()
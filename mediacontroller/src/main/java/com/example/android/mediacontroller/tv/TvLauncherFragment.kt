@@ -58,10 +58,20 @@ class TvLauncherFragment : BrowseSupportFragment() {
         onItemViewClickedListener = mediaAppClickedListener
     }
 
+    private var findBrowserAppsTask: FindMediaAppsTask? = null
+
     override fun onStart() {
         super.onStart()
 
-        FindMediaBrowserAppsTask(requireContext(), browserAppsUpdated).execute()
+        findBrowserAppsTask = FindMediaBrowserAppsTask(requireContext(), browserAppsUpdated,
+                loadBanners = true)
+                .also { it.execute() }
+    }
+
+    override fun onStop() {
+        findBrowserAppsTask?.cancel()
+        findBrowserAppsTask = null
+        super.onStop()
     }
 
     @TargetApi(Build.VERSION_CODES.M)
@@ -18,6 +18,7 @@ package com.example.android.mediacontroller.tv
 import android.annotation.TargetApi
 import android.graphics.drawable.BitmapDrawable
 import android.os.Build
+import androidx.core.content.ContextCompat
 import androidx.leanback.widget.ImageCardView
 import androidx.leanback.widget.Presenter
 import android.text.TextUtils
@@ -60,9 +61,17 @@ class MediaAppCardPresenter : Presenter() {
             titleText = appDetails.appName
             contentText = appDetails.packageName
 
-            val hasBanner = (appDetails.banner != null)
-            val image = appDetails.banner ?: appDetails.icon
-            mainImage = BitmapDrawable(viewHolder.view.context.resources, image)
+            // FindMediaBrowserAppsTask loads both in the background before the apps are listed,
+            // so nothing is loaded from the app's package here. The placeholder only shows if an
+            // app reaches the adapter some other way.
+            val banner = appDetails.loadedBanner
+            val hasBanner = (banner != null)
+            val image = banner ?: appDetails.loadedIcon
+            mainImage = if (image != null) {
+                BitmapDrawable(context.resources, image)
+            } else {
+                ContextCompat.getDrawable(context, R.drawable.ic_android)
+            }
             if (hasBanner) {
                 val width = resources.getDimensionPixelSize(R.dimen.tv_banner_width)
                 val height = resources.getDimensionPixelSize(R.dimen.tv_banner_height)
@@ -97,7 +97,7 @@ class TvTestingActivity : FragmentActivity() {
                 || (appDetails != null && appPackageName != appDetails.packageName)) {
             val serviceInfo = MediaAppDetails.findServiceInfo(appPackageName, packageManager)
             if (serviceInfo != null) {
-                mediaAppDetails = MediaAppDetails(serviceInfo, packageManager, resources)
+                mediaAppDetails = MediaAppDetails(serviceInfo, packageManager)
             }
         } else {
             showError("Couldn't update MediaAppDetails object")
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.support.v4.media.MediaBrowserCompat.MediaItem
+import android.support.v4.media.MediaDescriptionCompat
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileOutputStream
+
+class BinarySnapshotReaderTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    /**
+     * Writes a root with [NODE_COUNT] children that all share the interned "catalog/item/"
+     * prefix and subtitle, so the string table entries lie far behind the later nodes.
+     */
+    private fun writeSnapshot(): File {
+        val file = folder.newFile("snapshot.bin")
+        BinarySnapshotWriter(FileOutputStream(file)).use { writer ->
+            writer.writeHeader()
+            writer.writeNode(item("root", "Root", null, MediaItem.FLAG_BROWSABLE), 0)
+            for (i in 0 until NODE_COUNT) {
+                writer.writeNode(item("catalog/item/n$i",
+                        "Item $i, with a title long enough to spread the records out",
+                        "Shared subtitle", MediaItem.FLAG_BROWSABLE), 1)
+                if (i == SUBTREE_INDEX) {
+                    writer.writeNode(item("catalog/track/t$i", "Track $i", "Shared subtitle",
+                            MediaItem.FLAG_PLAYABLE), 2)
+                }
+            }
+        }
+        return file
+    }
+
+    @Test
+    fun findNode_stringsOutsideWindow() {
+        val file = writeSnapshot()
+
+        BinarySnapshotReader(file).use { reader ->
+            val node = reader.findNode("catalog/item/n2999")
+            assertNotNull(node)
+            assertEquals("catalog/item/n2999", node!!.mediaId)
+            assertEquals("Shared subtitle", node.subtitle)
+            assertEquals(1, node.depth)
+        }
+
+        // A fresh reader has nothing cached, so every interned string is read from disk.
+        BinarySnapshotReader(file).use { reader ->
+            val node = reader.findNode("catalog/item/n2500")
+            assertEquals("catalog/item/n2500", node!!.mediaId)
+            assertEquals("Item 2500, with a title long enough to spread the records out",
+                    node.title)
+            assertEquals("catalog/item/n0", reader.findNode("catalog/item/n0")!!.mediaId)
+            assertNull(reader.findNode("catalog/item/n$NODE_COUNT"))
+        }
+    }
+
+    @Test
+    fun forEachInSubtree_stringsOutsideWindow() {
+        val file = writeSnapshot()
+
+        BinarySnapshotReader(file).use { reader ->
+            val ids = ArrayList<String?>()
+            assertTrue(reader.forEachInSubtree("catalog/item/n$SUBTREE_INDEX") {
+                ids.add(it.mediaId)
+            })
+            assertEquals(listOf("catalog/item/n$SUBTREE_INDEX", "catalog/track/t$SUBTREE_INDEX"),
+                    ids)
+            assertFalse(reader.forEachInSubtree("missing") {})
+        }
+    }
+
+    private fun item(mediaId: String, title: String, subtitle: String?, flags: Int): MediaItem {
+        val description = MediaDescriptionCompat.Builder()
+                .setMediaId(mediaId)
+                .setTitle(title)
+                .setSubtitle(subtitle)
+                .build()
+        return MediaItem(description, flags)
+    }
+
+    private companion object {
+        const val NODE_COUNT = 3000
+        const val SUBTREE_INDEX = 2500
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Works out the bytes [BitmapUtils.decodeResource] keeps per banner, through the same
+ * [BitmapUtils.sampleSize] and [BitmapUtils.fitSize] calls it makes. Only the decoder itself
+ * needs a device, so the sampled size is taken both rounded up and down, as decoders differ.
+ */
+class BitmapUtilsTest {
+
+    @Test
+    fun decodedBanner_retainedBytes() {
+        for ((cardWidth, cardHeight) in CARD_SIZES) {
+            for ((width, height) in BANNER_SIZES) {
+                val sampleSize = BitmapUtils.sampleSize(width, height, cardWidth, cardHeight)
+                // JPEGs are decoded to RGB_565, PNGs with transparency to ARGB_8888.
+                for (opaque in listOf(true, false)) {
+                    for (sampled in listOf(ceilDiv(width, sampleSize) to
+                            ceilDiv(height, sampleSize),
+                            maxOf(1, width / sampleSize) to maxOf(1, height / sampleSize))) {
+                        val kept = BitmapUtils.fitSize(sampled.first, sampled.second, opaque,
+                                cardWidth, cardHeight)
+                        val fullBytes = width.toLong() * height * (if (opaque) 2 else 4)
+                        val message = "${if (opaque) "Opaque" else "Transparent"} " +
+                                "${width}x$height banner on a ${cardWidth}x$cardHeight card: " +
+                                "sampled by $sampleSize, kept at ${kept.width}x${kept.height}, " +
+                                "${kept.byteCount()} of $fullBytes bytes"
+                        println(message)
+
+                        assertTrue(message, kept.width <= cardWidth)
+                        assertTrue(message, kept.height <= cardHeight)
+                        assertEquals(message, opaque, kept.opaque)
+                        assertTrue(message, kept.byteCount() <= fullBytes)
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun decodedBanner_opaqueKeepsHalfTheBytes() {
+        val opaque = BitmapUtils.fitSize(1920, 1080, true, 320, 180)
+        val transparent = BitmapUtils.fitSize(1920, 1080, false, 320, 180)
+
+        assertEquals(320L * 180 * 2, opaque.byteCount())
+        assertEquals(320L * 180 * 4, transparent.byteCount())
+    }
+
+    @Test
+    fun decodedBanner_sampledToLessThanTwiceFinalSize() {
+        for ((cardWidth, cardHeight) in CARD_SIZES) {
+            for ((width, height) in BANNER_SIZES) {
+                val ratio = BitmapUtils.fitRatio(width, height, cardWidth, cardHeight)
+                val sampleSize = BitmapUtils.sampleSize(width, height, cardWidth, cardHeight)
+                val message = "${width}x$height banner on a ${cardWidth}x$cardHeight card"
+
+                // Subsampling never takes the banner below the size it is shown at...
+                assertTrue(message, ratio * sampleSize <= 1f || sampleSize == 1)
+                // ...and leaves at most twice that on each side to be scaled down.
+                if (ratio < 1f) {
+                    assertTrue(message, ceilDiv(width, sampleSize) <=
+                            2 * BitmapUtils.scaledSize(width, ratio) + 1)
+                    assertTrue(message, ceilDiv(height, sampleSize) <=
+                            2 * BitmapUtils.scaledSize(height, ratio) + 1)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun sampleSize_smallBannerNotSampled() {
+        assertEquals(1, BitmapUtils.sampleSize(160, 90, 320, 180))
+        assertEquals(1, BitmapUtils.sampleSize(320, 180, 320, 180))
+        assertEquals(1, BitmapUtils.sampleSize(639, 359, 320, 180))
+        assertEquals(2, BitmapUtils.sampleSize(640, 360, 320, 180))
+        assertEquals(8, BitmapUtils.sampleSize(3840, 2160, 320, 180))
+    }
+
+    private fun ceilDiv(size: Int, divisor: Int) = (size + divisor - 1) / divisor
+
+    companion object {
+        // R.dimen.tv_banner_width x R.dimen.tv_banner_height at mdpi, xhdpi and xxxhdpi
+        private val CARD_SIZES = listOf(160 to 90, 320 to 180, 640 to 360)
+
+        private val BANNER_SIZES = listOf(
+                160 to 90, 320 to 180, 321 to 181, 1280 to 720, 1920 to 1080, 3840 to 2160,
+                4096 to 4096, 8000 to 1000, 100 to 2000, 1 to 1, 7 to 3, 1279 to 719)
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import android.support.v4.media.session.PlaybackStateCompat
+import com.sun.management.ThreadMXBean
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class MediaInfoFormatterTest {
+
+    private val formatter = MediaInfoFormatter("PlaybackState", "Title", "Artist", "Album")
+
+    @Test
+    fun update_ordersLabelsBeforeActions() {
+        assertTrue(formatter.update(state(PlaybackStateCompat.STATE_PLAYING,
+                PlaybackStateCompat.ACTION_PREPARE or PlaybackStateCompat.ACTION_PLAY or
+                        PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH), null))
+
+        assertEquals("PlaybackState = STATE_PLAYING\n" +
+                "ACTION_PLAY = Supported\n" +
+                "ACTION_PLAY_FROM_SEARCH = Supported\n" +
+                "ACTION_PREPARE = Supported\n", formatter.text())
+    }
+
+    @Test
+    fun update_reportsOnlyChanges() {
+        val playing = state(PlaybackStateCompat.STATE_PLAYING, PlaybackStateCompat.ACTION_PLAY)
+        val paused = state(PlaybackStateCompat.STATE_PAUSED, PlaybackStateCompat.ACTION_PLAY)
+
+        assertTrue(formatter.update(playing, null))
+        formatter.text()
+        assertFalse(formatter.update(playing, null))
+        assertTrue(formatter.update(paused, null))
+        assertEquals("PlaybackState = STATE_PAUSED\nACTION_PLAY = Supported\n", formatter.text())
+
+        // A change that wasn't shown yet is still reported by later updates
+        assertTrue(formatter.update(playing, null))
+        assertTrue(formatter.update(playing, null))
+        formatter.text()
+
+        formatter.reset()
+        assertTrue(formatter.update(playing, null))
+    }
+
+    @Test
+    fun update_steadyStateDoesNotAllocate() {
+        val playing = state(PlaybackStateCompat.STATE_PLAYING, PlaybackStateCompat.ACTION_PLAY)
+        val paused = state(PlaybackStateCompat.STATE_PAUSED, PlaybackStateCompat.ACTION_PLAY)
+        val expected = "PlaybackState = STATE_PLAYING\nACTION_PLAY = Supported\n"
+
+        // Unchanged state, as sent again with every position update
+        val unchanged = allocatedBytes {
+            formatter.update(playing, null)
+            formatter.text()
+        }
+        assertEquals(expected, formatter.text())
+        assertTrue("Allocated $unchanged bytes", unchanged < ALLOCATION_SLACK_BYTES)
+
+        // Changing state that isn't shown, which only formats into the reused builders
+        val changing = allocatedBytes {
+            formatter.update(paused, null)
+            formatter.update(playing, null)
+        }
+        assertEquals(expected, formatter.text())
+        assertTrue("Allocated $changing bytes", changing < ALLOCATION_SLACK_BYTES)
+    }
+
+    /**
+     * Returns how many bytes the current thread allocates while running [block]
+     * [UPDATE_COUNT] times, after running it as often to warm up.
+     */
+    private inline fun allocatedBytes(block: () -> Unit): Long {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as ThreadMXBean
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported)
+        threadMXBean.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+
+        for (i in 0 until UPDATE_COUNT) {
+            block()
+        }
+        val before = threadMXBean.getThreadAllocatedBytes(threadId)
+        for (i in 0 until UPDATE_COUNT) {
+            block()
+        }
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before
+    }
+
+    private fun state(state: Int, actions: Long) = PlaybackStateCompat.Builder()
+            .setState(state, 0L, 1f)
+            .setActions(actions)
+            .build()
+
+    companion object {
+        private const val UPDATE_COUNT = 10000
+        // Far less than a single String per call, which would be over a megabyte
+        private const val ALLOCATION_SLACK_BYTES = 4096L
+    }
+}
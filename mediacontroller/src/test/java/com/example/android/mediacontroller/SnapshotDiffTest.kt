@@ -0,0 +1,122 @@
+/*
+ * Copyright 2026 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.mediacontroller
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SnapshotDiffTest {
+
+    private class RecordingListener : SnapshotDiff.Listener {
+        val added = ArrayList<String>()
+        val removed = ArrayList<String>()
+        val moved = ArrayList<String>()
+        val changed = ArrayList<String>()
+
+        override fun onAdded(node: SnapshotNode, parentId: String?) {
+            added.add("${node.mediaId} under $parentId")
+        }
+
+        override fun onRemoved(node: SnapshotNode, parentId: String?) {
+            removed.add("${node.mediaId} under $parentId")
+        }
+
+        override fun onMoved(node: SnapshotNode, oldParentId: String?, newParentId: String?) {
+            moved.add("${node.mediaId} from $oldParentId to $newParentId")
+        }
+
+        override fun onChanged(oldNode: SnapshotNode, newNode: SnapshotNode) {
+            changed.add("${oldNode.title} to ${newNode.title}")
+        }
+    }
+
+    @Test
+    fun run_reportsAddedRemovedMovedAndChanged() {
+        val oldSnapshot = snapshot(
+                line(1, "albums", "Albums"),
+                line(2, "album/a", "Album A"),
+                line(2, "album/b", "Album B"),
+                line(1, "playlists", "Playlists"),
+                line(2, "playlist/c", "Playlist C"))
+        val newSnapshot = snapshot(
+                line(1, "albums", "Albums"),
+                line(2, "album/a", "Album A (Remastered)"),
+                line(2, "album/d", "Album D"),
+                line(2, "playlist/c", "Playlist C"),
+                line(1, "playlists", "Playlists"))
+
+        val listener = RecordingListener()
+        val summary = SnapshotDiff(oldSnapshot, newSnapshot).run(listener)
+
+        assertEquals(listOf("album/d under albums"), listener.added)
+        assertEquals(listOf("album/b under albums"), listener.removed)
+        assertEquals(listOf("playlist/c from playlists to albums"), listener.moved)
+        assertEquals(listOf("Album A to Album A (Remastered)"), listener.changed)
+        assertEquals(1, summary.added)
+        assertEquals(1, summary.removed)
+        assertEquals(1, summary.moved)
+        assertEquals(1, summary.changed)
+        assertEquals(2, summary.unchanged)
+        assertFalse(summary.identical)
+    }
+
+    @Test
+    fun run_identicalSnapshots() {
+        val lines = arrayOf(
+                line(1, "albums", "Albums"),
+                line(2, "album/a", "Album A"),
+                line(2, null, "Unkeyed"),
+                line(2, "album/a", "Duplicate of A"))
+
+        val summary = SnapshotDiff(snapshot(*lines), snapshot(*lines)).run(RecordingListener())
+
+        assertTrue(summary.identical)
+        assertEquals(2, summary.unchanged)
+        assertEquals(2, summary.unkeyed)
+        assertEquals(2, summary.duplicates)
+    }
+
+    @Test
+    fun run_tableGrowsPastInitialCapacity() {
+        val oldLines = (0 until LARGE_COUNT).map { line(1, "item/$it", "Item $it") }
+        val newLines = oldLines.toMutableList()
+        newLines[LARGE_COUNT - 1] = line(1, "item/${LARGE_COUNT - 1}", "Renamed")
+
+        val listener = RecordingListener()
+        val summary = SnapshotDiff(snapshot(*oldLines.toTypedArray()),
+                snapshot(*newLines.toTypedArray())).run(listener)
+
+        assertEquals(listOf("Item ${LARGE_COUNT - 1} to Renamed"), listener.changed)
+        assertEquals(LARGE_COUNT - 1, summary.unchanged)
+        assertEquals(0, summary.added + summary.removed + summary.moved)
+    }
+
+    private fun snapshot(vararg lines: String): SnapshotSource {
+        val text = "Root:\n" + lines.joinToString("\n", postfix = "\n")
+        return SnapshotSource.text { text.byteInputStream() }
+    }
+
+    private fun line(depth: Int, mediaId: String?, title: String) =
+            "\t".repeat(depth) + "Title:$title,Subtitle:NAN," +
+                    "MediaId:${mediaId ?: TextSnapshotWriter.NOT_AVAILABLE},URI:NAN,Description:NAN"
+
+    companion object {
+        // More than the diff's initial table size
+        private const val LARGE_COUNT = 10000
+    }
+}